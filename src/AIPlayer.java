@@ -6,10 +6,12 @@ import java.util.*;
 public class AIPlayer extends Player {
     private static final double BREAK_INTO_ENEMY_CONTINENT_THRESHOLD = 0.7; // The minimum probability for a journey to break into an enemy continent.
     private static final double OTHER_ATTACKS_THRESHOLD = 0.75; // The minimum probability for good attacks.
-    private static final int MILLISECONDS_TO_WAIT = 2000; // The number of milliseconds to wait at the end of the turn.
+    private static final long MAX_DISTANCE_MATRIX_BYTES = 64 << 20; // The maximum memory of the attack distance matrix. On bigger maps the paths are searched every time.
 
     private GameManager game; // The game object, for the AI to have the map objects.
     private int troopsToDraft; // The number of troops remaining to draft.
+    private AttackDistanceMatrix distanceMatrix; // The shortest attack paths from my countries in this turn, or null if the map is too big for it.
+    private BoardTransaction draftTransaction; // An overlay over the board for trying out drafts before making them. Reused between turns.
 
     /**
      * A constructor that creates a new for the AI and sets the variables.
@@ -22,11 +24,17 @@ public class AIPlayer extends Player {
         this.game = game;
     }
 
+    protected GameManager getGame() {
+        return this.game;
+    }
+
     /**
-     * Plays the turn for the AI.
+     * Plays the turn for the AI - drafts, attacks and fortifies. Called by the TurnScheduler, which finishes the turn afterwards.
      */
     public void doTurn() {
         this.troopsToDraft = this.getNumberOfNewTroops(this.game.getContinents());
+        this.buildDistanceMatrix();
+        if (this.draftTransaction == null) this.draftTransaction = new BoardTransaction(this.game.getCountries());
 
         List<Continent> myContinents = this.getMyContinents();
         myContinents.sort(new Comparator<Continent>() {
@@ -61,34 +69,81 @@ public class AIPlayer extends Player {
         this.doOtherGoodAttacks();
 
         this.handleFortify();
+        this.distanceMatrix = null;
+    }
+
+    /**
+     * Builds the attack distance matrix for this turn, if it isn't too big.
+     */
+    private void buildDistanceMatrix() {
+        Country[] countries = this.game.getCountries();
+        if (AttackDistanceMatrix.estimateMemoryFootprint(this.countries.size(), countries.length) <= AIPlayer.MAX_DISTANCE_MATRIX_BYTES) {
+            this.distanceMatrix = AttackDistanceMatrix.build(this, countries);
+            System.out.println(this.distanceMatrix);
+        } else this.distanceMatrix = null;
+    }
+
+    /**
+     * @param source The country to start the path from.
+     * @param destination The destination of the path.
+     * @return The shortest attack path from source to destination, from the distance matrix if there is one.
+     */
+    private Stack<Country> getPath(Country source, Country destination) {
+        if (this.distanceMatrix != null) return this.distanceMatrix.getPath(source, destination);
+        return source.getPathToRival(destination, this.game.getCountries());
+    }
+
+    /**
+     * @param country A country.
+     * @param continent A continent.
+     * @return The border of the continent that is closest to the country, from the distance matrix if there is one.
+     */
+    private Country getClosestContinentBorder(Country country, Continent continent) {
+        if (this.distanceMatrix != null) return this.distanceMatrix.getClosest(country, continent.getBorders());
+        return country.getClosestContinentBorder(continent, this.game.getCountries());
+    }
 
-        try {
-            Thread.sleep(AIPlayer.MILLISECONDS_TO_WAIT);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Attacks another country, and updates the distance matrix with the results.
+     * @param attacker The attacking country.
+     * @param countryToAttack The country to attack.
+     * @param moveAllTroopsOnWin Whether to move all troops (besides 1 that has to stay) to the new country when winning.
+     * @return Whether the attack was a success.
+     */
+    private boolean attack(Country attacker, Country countryToAttack, boolean moveAllTroopsOnWin) {
+        boolean attackSuccess = attacker.attack(countryToAttack, moveAllTroopsOnWin);
+        if (this.distanceMatrix != null) this.distanceMatrix.countryChanged(countryToAttack);
+        return attackSuccess;
+    }
+
+    /**
+     * Goes on a series of attacks in the shortest path to destination.
+     * @param source The country to start the journey from.
+     * @param destination The destination of the attacks.
+     * @return Whether the journey was successful.
+     */
+    private boolean goOnAttackJourney(Country source, Country destination) {
+        Stack<Country> path = this.getPath(source, destination);
+        Country attacker = source;
+        boolean attackSuccess = true;
+        while (!path.isEmpty() && attackSuccess) {
+            Country countryToAttack = path.pop();
+            attackSuccess = this.attack(attacker, countryToAttack, true);
+            attacker = countryToAttack;
         }
 
-        this.game.finishTurn();
+        return attackSuccess;
     }
 
     /**
      * @param continent A continent.
-     * @return A map with the continent borders as keys and the number of opponent troops that are neighbors as values.
+     * @return A map with the continent borders as keys (in the order of the continent) and the number of opponent troops that are neighbors as values.
      */
     private Map<Country, Integer> getOpponentTroopsOnBorders(Continent continent) {
-        Map<Country, Integer> opponentTroopsOnBorder = new HashMap<>();
-
-        List<Country> borders = continent.getBorders();
-        for (Country border : borders) {
-            int opponentTroops = 0;
-            for (int neighborId : border.getNeighbors()) {
-                Country neighbor = this.game.getCountries()[neighborId];
-                if (neighbor.getOwner() != this)
-                    opponentTroops += neighbor.getNumOfTroops();
-            }
+        Map<Country, Integer> opponentTroopsOnBorder = new LinkedHashMap<>();
 
-            opponentTroopsOnBorder.put(border, opponentTroops);
-        }
+        for (Country border : continent.getBorders())
+            opponentTroopsOnBorder.put(border, border.getEnemyTroopsOnBorder()); // The continent is mine, so these are all troops outside of it.
 
         return opponentTroopsOnBorder;
     }
@@ -126,7 +181,7 @@ public class AIPlayer extends Player {
         Map<Country, Integer> continentBorders = this.getOpponentTroopsOnBorders(continent);
         for (Country border : continentBorders.keySet())
             if (border.getNumOfTroops() < continentBorders.get(border)) {
-                int troopsToAdd = Math.max(continentBorders.get(border) - border.getNumOfTroops(), this.troopsToDraft);
+                int troopsToAdd = Math.min(continentBorders.get(border) - border.getNumOfTroops(), this.troopsToDraft);
                 border.addTroops(troopsToAdd);
                 this.troopsToDraft -= troopsToAdd;
                 if (this.troopsToDraft == 0) return;
@@ -139,16 +194,7 @@ public class AIPlayer extends Player {
      * @return The probability all attacks from source to destination will be successful.
      */
     private float probabilityOfJourneySuccess(Country source, Country destination) {
-        Stack<Country> path = source.getPathToRival(destination, this.game.getCountries());
-        if (path.isEmpty()) return 0;
-        float journeyProbability = 1;
-        int troopsRemaining = source.getNumOfTroops();
-        while (!path.isEmpty()) {
-            float battleProbability = BattleUtils.percentageOfWinning(troopsRemaining, path.pop().getNumOfTroops());
-            journeyProbability *= battleProbability;
-            troopsRemaining = Math.round(battleProbability * troopsRemaining);
-        }
-        return journeyProbability;
+        return JourneyPlanner.forPath(this.getPath(source, destination)).getProbabilityOfSuccess(source.getNumOfTroops());
     }
 
     /**
@@ -156,19 +202,24 @@ public class AIPlayer extends Player {
      */
     private class EnemyNeighborsComparator implements Comparator<Country> {
 
+        /**
+         * @param country A country.
+         * @return The number of neighbors of the country that aren't controlled by me.
+         * Read from the frontier index for my countries, and counted for the countries of other players.
+         */
+        private int getNumOfEnemyNeighbors(Country country) {
+            if (country.getOwner() == AIPlayer.this) return country.getNumOfEnemyNeighbors();
+
+            int numOfEnemyNeighbors = 0;
+            for (Country neighbor : country.getNeighborCountries())
+                if (neighbor.getOwner() != AIPlayer.this)
+                    numOfEnemyNeighbors++;
+            return numOfEnemyNeighbors;
+        }
+
         @Override
         public int compare(Country c1, Country c2) {
-            int numOfC1EnemyNeighbors = 0;
-            for (Integer neighborId : c1.getNeighbors())
-                if (AIPlayer.this.game.getCountries()[neighborId].getOwner() != AIPlayer.this)
-                    numOfC1EnemyNeighbors++;
-
-            int numOfC2EnemyNeighbors = 0;
-            for (Integer neighborId : c2.getNeighbors())
-                if (AIPlayer.this.game.getCountries()[neighborId].getOwner() != AIPlayer.this)
-                    numOfC2EnemyNeighbors++;
-
-            return numOfC1EnemyNeighbors - numOfC2EnemyNeighbors;
+            return this.getNumOfEnemyNeighbors(c1) - this.getNumOfEnemyNeighbors(c2);
         }
     }
 
@@ -187,10 +238,11 @@ public class AIPlayer extends Player {
         } else {
             Country bestCountry = null;
             float bestProbability = 0;
+            Country[] closestContinentBorders = continent.getClosestBordersToPlayer(this, this.game.getCountries());
 
             for (Country country : this.countries)
                 if (!this.getMyContinents().contains(country.getContinent())) {
-                    Country closestContinentBorder = country.getClosestContinentBorder(continent, this.game.getCountries());
+                    Country closestContinentBorder = closestContinentBorders[country.getId()];
                     if (closestContinentBorder != null) {
                         float probabilityOfJourneySuccess = this.probabilityOfJourneySuccess(country, closestContinentBorder);
                         if (probabilityOfJourneySuccess > bestProbability) {
@@ -211,21 +263,24 @@ public class AIPlayer extends Player {
     private void breakIntoEnemyContinent(Continent continent) {
         Country bestCountry = this.getClosestCountry(continent);
         if (bestCountry != null) {
-            Country bestBorder = bestCountry.getClosestContinentBorder(continent, this.game.getCountries());
+            Country bestBorder = this.getClosestContinentBorder(bestCountry, continent);
 
             if (bestBorder != null) {
-                int troopsAdded = 0;
-                while (this.troopsToDraft > 0 && this.probabilityOfJourneySuccess(bestCountry, bestBorder) < AIPlayer.BREAK_INTO_ENEMY_CONTINENT_THRESHOLD) {
-                    bestCountry.addTroops(1);
-                    this.troopsToDraft--;
-                    troopsAdded++;
+                // The path is found once, and the journey is made only if it doesn't take all the troops left to draft.
+                // The troops the planner asks for are tried out in the draft transaction, and reach the board only if the journey is worth it with them.
+                JourneyPlanner planner = JourneyPlanner.forPath(this.getPath(bestCountry, bestBorder));
+                int numOfTroops = bestCountry.getNumOfTroops();
+                int neededTroops = planner.getMinimumTroops(numOfTroops, numOfTroops + this.troopsToDraft - 1, AIPlayer.BREAK_INTO_ENEMY_CONTINENT_THRESHOLD);
+                if (neededTroops != -1) {
+                    this.draftTransaction.begin();
+                    this.draftTransaction.addTroops(bestCountry, neededTroops - numOfTroops);
+                    if (planner.getProbabilityOfSuccess(this.draftTransaction.getNumOfTroops(bestCountry)) >= AIPlayer.BREAK_INTO_ENEMY_CONTINENT_THRESHOLD) {
+                        this.draftTransaction.commit();
+                        this.troopsToDraft -= neededTroops - numOfTroops;
+                        this.goOnAttackJourney(bestCountry, bestBorder);
+                    } else
+                        this.draftTransaction.discard();
                 }
-
-                if (this.troopsToDraft == 0) {
-                    bestCountry.addTroops(-troopsAdded);
-                    this.troopsToDraft = troopsAdded;
-                } else
-                    bestCountry.goOnAttackJourney(bestBorder, this.game.getCountries());
             }
         }
     }
@@ -252,15 +307,14 @@ public class AIPlayer extends Player {
      */
     private void conquerContinent(Continent continent, Country countryToConquerWith) {
         if (countryToConquerWith.getContinent() != continent) {
-            Country continentClosestBorder = countryToConquerWith.getClosestContinentBorder(continent, this.game.getCountries());
-            if (continentClosestBorder != null && !countryToConquerWith.goOnAttackJourney(continentClosestBorder, this.game.getCountries()))
+            Country continentClosestBorder = this.getClosestContinentBorder(countryToConquerWith, continent);
+            if (continentClosestBorder != null && !this.goOnAttackJourney(countryToConquerWith, continentClosestBorder))
                 return;
         }
 
         while (countryToConquerWith.getNumOfTroops() > 1) {
             List<Country> enemyNeighbors = new ArrayList<>();
-            for (Integer neighborId : countryToConquerWith.getNeighbors()) {
-                Country neighbor = this.game.getCountries()[neighborId];
+            for (Country neighbor : countryToConquerWith.getNeighborCountries()) {
                 if (neighbor.getOwner() != this && neighbor.getContinent() == continent)
                     enemyNeighbors.add(neighbor);
             }
@@ -268,7 +322,7 @@ public class AIPlayer extends Player {
             if (enemyNeighbors.isEmpty()) return;
 
             Country enemyToAttack = Collections.max(enemyNeighbors, new EnemyNeighborsComparator());
-            if (countryToConquerWith.attack(enemyToAttack, true))
+            if (this.attack(countryToConquerWith, enemyToAttack, true))
                 countryToConquerWith = enemyToAttack;
         }
     }
@@ -282,16 +336,11 @@ public class AIPlayer extends Player {
             if (!myContinents.contains(country.getContinent())) {
                 boolean shouldKeepAttacking = true;
                 while (shouldKeepAttacking) {
-                    List<Country> neighbors = new ArrayList<>();
-                    for (Integer neighborId : country.getNeighbors())
-                        if (this.game.getCountries()[neighborId].getOwner() != this)
-                            neighbors.add(this.game.getCountries()[neighborId]);
-
-                    if (!neighbors.isEmpty()) {
-                        Country weakestNeighbor = Collections.min(neighbors);
-                        shouldKeepAttacking = BattleUtils.percentageOfWinning(country.getNumOfTroops(), weakestNeighbor.getNumOfTroops()) > AIPlayer.OTHER_ATTACKS_THRESHOLD;
+                    Country weakestNeighbor = country.getWeakestEnemyNeighbor(); // The country is mine, so its enemies aren't mine.
+                    if (weakestNeighbor != null) {
+                        shouldKeepAttacking = BattleUtils.isProbabilityAbove(country.getNumOfTroops(), weakestNeighbor.getNumOfTroops(), AIPlayer.OTHER_ATTACKS_THRESHOLD);
                         if (shouldKeepAttacking)
-                            shouldKeepAttacking = country.attack(weakestNeighbor, true);
+                            shouldKeepAttacking = this.attack(country, weakestNeighbor, true);
                         country = weakestNeighbor;
                     } else shouldKeepAttacking = false;
 
@@ -304,10 +353,8 @@ public class AIPlayer extends Player {
      */
     private Country getInnerCountryWithMostTroops() {
         List<Country> innerCountries = new ArrayList<>();
-        for (Continent continent : this.getMyContinents()) {
-            innerCountries.addAll(continent.getCountries());
-            innerCountries.removeAll(continent.getBorders());
-        }
+        for (Continent continent : this.getMyContinents())
+            innerCountries.addAll(continent.getInnerCountries());
 
         return innerCountries.isEmpty() ? null : Collections.max(innerCountries);
     }
@@ -0,0 +1,178 @@
+import java.util.List;
+import java.util.Stack;
+import java.util.stream.IntStream;
+
+/**
+ * A matrix with the shortest attack paths from every country of a player to every other country, for planning a turn.
+ * Every row is the result of a single source search from one country of the player (like getPathToRival), so the
+ * distances and paths are exactly the same as searching separately every time.
+ * The matrix is built once at the beginning of the turn (in parallel on big maps). After every battle the rows that
+ * could have been affected are marked as stale, and they are recalculated only when they are used again.
+ */
+public class AttackDistanceMatrix {
+    private static final long PARALLEL_BUILD_THRESHOLD = 1 << 16; // The number of cells (rows times countries) above which the rows are built in parallel.
+    private static final long BYTES_PER_CELL = 2 * Integer.BYTES; // The memory of every cell - a distance and a previous country.
+
+    private final Player player; // The player whose countries are the sources of the rows.
+    private final Country[] countries; // The array of countries.
+    private final int[][] distances; // The distances of every row, indexed by the id of the source. Null for countries without a row.
+    private final int[][] previousCountries; // The previous countries of every row, indexed by the id of the source.
+    private final boolean[] staleRows; // Whether every row has to be recalculated before it is used.
+    private long buildNanos; // The time it took to build the matrix.
+
+    /**
+     * A constructor that creates an empty matrix. Use build to create a matrix with the rows of all the countries of the player.
+     */
+    private AttackDistanceMatrix(Player player, Country[] countries) {
+        this.player = player;
+        this.countries = countries;
+        this.distances = new int[countries.length][];
+        this.previousCountries = new int[countries.length][];
+        this.staleRows = new boolean[countries.length];
+    }
+
+    /**
+     * @param numOfSources The number of countries of the player.
+     * @param numOfCountries The number of countries on the map.
+     * @return The number of bytes the arrays of a matrix would take.
+     */
+    public static long estimateMemoryFootprint(int numOfSources, int numOfCountries) {
+        return numOfSources * (numOfCountries * AttackDistanceMatrix.BYTES_PER_CELL);
+    }
+
+    /**
+     * Builds a matrix with a row for every country of the player.
+     * @param player The player that is planning the turn.
+     * @param countries The array of countries.
+     * @return The matrix.
+     */
+    public static AttackDistanceMatrix build(Player player, Country[] countries) {
+        long startTime = System.nanoTime();
+        AttackDistanceMatrix matrix = new AttackDistanceMatrix(player, countries);
+        int[] sourceIds = IntStream.range(0, countries.length).filter(id -> countries[id].getOwner() == player).toArray();
+        IntStream sources = IntStream.of(sourceIds);
+        if ((long) sourceIds.length * countries.length >= AttackDistanceMatrix.PARALLEL_BUILD_THRESHOLD)
+            sources = sources.parallel();
+        sources.forEach(matrix::calculateRow);
+
+        matrix.buildNanos = System.nanoTime() - startTime;
+        return matrix;
+    }
+
+    /**
+     * Calculates the row of a country with a single source search.
+     * @param sourceId The id of the country.
+     */
+    private void calculateRow(int sourceId) {
+        PathFinder pathFinder = PathFinder.forCurrentThread();
+        pathFinder.search(this.countries[sourceId], null, this.countries);
+
+        int[] rowDistances = this.distances[sourceId] != null ? this.distances[sourceId] : new int[this.countries.length];
+        int[] rowPreviousCountries = this.previousCountries[sourceId] != null ? this.previousCountries[sourceId] : new int[this.countries.length];
+        for (int countryId = 0; countryId < this.countries.length; countryId++) {
+            rowDistances[countryId] = pathFinder.getDistance(countryId);
+            rowPreviousCountries[countryId] = pathFinder.getPreviousCountry(countryId);
+        }
+
+        this.distances[sourceId] = rowDistances;
+        this.previousCountries[sourceId] = rowPreviousCountries;
+        this.staleRows[sourceId] = false;
+    }
+
+    /**
+     * Makes sure the row of a country exists and isn't stale.
+     * @param source The country.
+     */
+    private void ensureRow(Country source) {
+        if (this.distances[source.getId()] == null || this.staleRows[source.getId()])
+            this.calculateRow(source.getId());
+    }
+
+    /**
+     * Marks the rows that could have been affected by a change in the owner or troops of a country as stale.
+     * These are the rows that reached the country, and the rows that reached one of its neighbors (if it can be attacked now).
+     * Changes in the troops of countries of the player (other than sources in the middle of a path) don't affect any row.
+     * @param changedCountry The country that changed.
+     */
+    public void countryChanged(Country changedCountry) {
+        int changedId = changedCountry.getId();
+        for (int sourceId = 0; sourceId < this.distances.length; sourceId++) {
+            int[] rowDistances = this.distances[sourceId];
+            if (rowDistances == null || this.staleRows[sourceId]) continue;
+
+            boolean isAffected = rowDistances[changedId] != Integer.MAX_VALUE;
+            if (!isAffected && changedCountry.getOwner() != this.countries[sourceId].getOwner())
+                for (int neighborId : changedCountry.getNeighbors())
+                    if (rowDistances[neighborId] != Integer.MAX_VALUE) {
+                        isAffected = true;
+                        break;
+                    }
+
+            this.staleRows[sourceId] = isAffected;
+        }
+    }
+
+    /**
+     * @param source The first country of the path.
+     * @param destination The last country of the path.
+     * @return The distance (in number of troops on the way) of the shortest path, or Integer.MAX_VALUE if there is no path.
+     */
+    public int getDistance(Country source, Country destination) {
+        this.ensureRow(source);
+        return this.distances[source.getId()][destination.getId()];
+    }
+
+    /**
+     * @param source The first country of the path.
+     * @param destination The last country of the path.
+     * @return A stack with the countries creating the shortest path, like getPathToRival. The first country is the first country to conquer.
+     */
+    public Stack<Country> getPath(Country source, Country destination) {
+        this.ensureRow(source);
+        int[] rowPreviousCountries = this.previousCountries[source.getId()];
+        Stack<Country> path = new Stack<>();
+        if (this.distances[source.getId()][destination.getId()] != Integer.MAX_VALUE)
+            for (int countryId = destination.getId(); rowPreviousCountries[countryId] != PathFinder.NO_COUNTRY; countryId = rowPreviousCountries[countryId])
+                path.push(this.countries[countryId]);
+
+        return path;
+    }
+
+    /**
+     * @param source The first country of the paths.
+     * @param targets A list of countries.
+     * @return The first of the targets with the shortest path from the source, or null if none of them can be reached.
+     */
+    public Country getClosest(Country source, List<Country> targets) {
+        this.ensureRow(source);
+        int[] rowDistances = this.distances[source.getId()];
+        Country closestTarget = null;
+        int distanceOfClosestTarget = Integer.MAX_VALUE;
+        for (Country target : targets)
+            if (rowDistances[target.getId()] < distanceOfClosestTarget) {
+                closestTarget = target;
+                distanceOfClosestTarget = rowDistances[target.getId()];
+            }
+
+        return closestTarget;
+    }
+
+    /**
+     * @return The number of bytes the rows of the matrix take.
+     */
+    public long getMemoryFootprint() {
+        int numOfRows = 0;
+        for (int[] rowDistances : this.distances)
+            if (rowDistances != null) numOfRows++;
+        return estimateMemoryFootprint(numOfRows, this.countries.length);
+    }
+
+    public long getBuildNanos() {
+        return this.buildNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "Attack distance matrix of " + this.player.getName() + ": " + this.getMemoryFootprint() + " bytes, built in " + this.buildNanos / 1000 + " microseconds";
+    }
+}
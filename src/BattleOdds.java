@@ -0,0 +1,139 @@
+import java.util.Arrays;
+
+/**
+ * A class that calculates the exact probability of the attacker winning a battle.
+ * The probabilities of the outcomes of a single round of dice (3v2, 3v1, 2v2, 2v1, 1v2, 1v1) are calculated once,
+ * and the probability of winning every battle is calculated from them with dynamic programming into a dense table.
+ * After the table is built every lookup is O(1). The table is extended on demand when a bigger battle is asked for.
+ */
+public class BattleOdds {
+    private static final int DEFAULT_TABLE_SIZE = 100; // The number of troops (on each side) the table is built for on first use.
+    public static final int MAX_TABLE_SIZE = 500; // The maximum number of troops (on each side) the table can be extended to.
+    private static final int MAX_ATTACK_DICE = 3; // The maximum number of dice the attacker rolls in a round.
+    private static final int MAX_DEFEND_DICE = 2; // The maximum number of dice the defender rolls in a round.
+
+    /*
+     * The probabilities of the outcomes of a single round. The indexes are the number of attack dice, the number of
+     * defend dice and the number of troops the attacker loses in the round (the defender loses the rest of the compared dice).
+     */
+    private static final double[][][] ROUND_OUTCOMES = calculateRoundOutcomes();
+
+    private static volatile double[][] table = new double[0][0]; // The table of probabilities. The indexes are the number of attacking and defending troops.
+
+    /**
+     * Calculates the probabilities of the outcomes of a single round for every combination of dice, by going over all the possible rolls.
+     * @return An array with the probabilities, indexed by number of attack dice, number of defend dice and attacker losses.
+     */
+    private static double[][][] calculateRoundOutcomes() {
+        double[][][] outcomes = new double[MAX_ATTACK_DICE + 1][MAX_DEFEND_DICE + 1][];
+        for (int attackDice = 1; attackDice <= MAX_ATTACK_DICE; attackDice++)
+            for (int defendDice = 1; defendDice <= MAX_DEFEND_DICE; defendDice++) {
+                int numOfComparedDice = Math.min(attackDice, defendDice), numOfRolls = (int) Math.pow(6, attackDice + defendDice);
+                int[] countOfLosses = new int[numOfComparedDice + 1];
+                for (int roll = 0; roll < numOfRolls; roll++) {
+                    int[] attacking = new int[attackDice], defending = new int[defendDice];
+                    int rest = roll;
+                    for (int i = 0; i < attackDice; i++, rest /= 6) attacking[i] = rest % 6;
+                    for (int i = 0; i < defendDice; i++, rest /= 6) defending[i] = rest % 6;
+                    Arrays.sort(attacking);
+                    Arrays.sort(defending);
+
+                    int attackerLosses = 0;
+                    for (int i = 1; i <= numOfComparedDice; i++)
+                        if (attacking[attackDice - i] <= defending[defendDice - i]) attackerLosses++;
+                    countOfLosses[attackerLosses]++;
+                }
+
+                outcomes[attackDice][defendDice] = new double[numOfComparedDice + 1];
+                for (int losses = 0; losses <= numOfComparedDice; losses++)
+                    outcomes[attackDice][defendDice][losses] = (double) countOfLosses[losses] / numOfRolls;
+            }
+
+        return outcomes;
+    }
+
+    /**
+     * @param numOfAttackDice The number of dice the attacker rolls.
+     * @param numOfDefendDice The number of dice the defender rolls.
+     * @return The probabilities of the attacker losing 0, 1, ... troops in the round. Shouldn't be modified.
+     */
+    static double[] getRoundOutcomes(int numOfAttackDice, int numOfDefendDice) {
+        return BattleOdds.ROUND_OUTCOMES[numOfAttackDice][numOfDefendDice];
+    }
+
+    /**
+     * Builds a new table with the given size, reusing the values of the current table.
+     * Every cell only depends on cells with fewer (or equal) troops on both sides, so the cells are filled in increasing order.
+     * @param oldTable The current table.
+     * @param size The maximum number of troops on each side in the new table.
+     * @return The new table.
+     */
+    private static double[][] buildTable(double[][] oldTable, int size) {
+        double[][] newTable = new double[size + 1][size + 1];
+        for (int attackers = 0; attackers <= size; attackers++) {
+            newTable[attackers][0] = 1; // The defense has no troops left, so the attacker already won.
+            if (attackers <= 1) continue; // The attacker can't attack, so the probability stays 0.
+
+            int numOfAttackDice = Math.min(attackers - 1, MAX_ATTACK_DICE);
+            for (int defenders = 1; defenders <= size; defenders++) {
+                if (attackers < oldTable.length && defenders < oldTable.length) {
+                    newTable[attackers][defenders] = oldTable[attackers][defenders];
+                    continue;
+                }
+
+                int numOfDefendDice = Math.min(defenders, MAX_DEFEND_DICE), numOfComparedDice = Math.min(numOfAttackDice, numOfDefendDice);
+                double[] outcomes = ROUND_OUTCOMES[numOfAttackDice][numOfDefendDice];
+                double probability = 0;
+                for (int attackerLosses = 0; attackerLosses <= numOfComparedDice; attackerLosses++)
+                    probability += outcomes[attackerLosses] * newTable[attackers - attackerLosses][defenders - (numOfComparedDice - attackerLosses)];
+                newTable[attackers][defenders] = probability;
+            }
+        }
+
+        return newTable;
+    }
+
+    /**
+     * Makes sure the table contains battles with up to the given number of troops on each side.
+     * When the table is extended its size is at least doubled, so that it is rebuilt a small number of times.
+     * @param maxTroops The number of troops (on each side) the table should contain. Can't be more than MAX_TABLE_SIZE.
+     */
+    public static synchronized void ensureCapacity(int maxTroops) {
+        if (maxTroops > BattleOdds.MAX_TABLE_SIZE)
+            throw new IllegalArgumentException("The table can't contain more than " + BattleOdds.MAX_TABLE_SIZE + " troops");
+
+        double[][] currentTable = BattleOdds.table;
+        if (maxTroops < currentTable.length) return;
+
+        int newSize = Math.max(maxTroops, Math.max(2 * (currentTable.length - 1), BattleOdds.DEFAULT_TABLE_SIZE));
+        BattleOdds.table = buildTable(currentTable, Math.min(newSize, BattleOdds.MAX_TABLE_SIZE));
+    }
+
+    /**
+     * @param numOfAttackingTroops The number of troops on the attacking country.
+     * @param numOfDefendingTroops The number of troops on the defending country.
+     * @return Whether the probability of this battle can be calculated exactly by the table.
+     */
+    public static boolean isInRange(int numOfAttackingTroops, int numOfDefendingTroops) {
+        return numOfAttackingTroops <= BattleOdds.MAX_TABLE_SIZE && numOfDefendingTroops <= BattleOdds.MAX_TABLE_SIZE;
+    }
+
+    /**
+     * Looks up the exact probability of the attacker winning the battle. Extends the table if it's too small.
+     * @param numOfAttackingTroops The number of troops on the attacking country.
+     * @param numOfDefendingTroops The number of troops on the defending country.
+     * @return The probability the attacker wins the battle.
+     */
+    public static double getProbability(int numOfAttackingTroops, int numOfDefendingTroops) {
+        if (numOfDefendingTroops <= 0) return 1;
+        if (numOfAttackingTroops <= 1) return 0;
+
+        double[][] currentTable = BattleOdds.table;
+        if (numOfAttackingTroops >= currentTable.length || numOfDefendingTroops >= currentTable.length) {
+            ensureCapacity(Math.max(numOfAttackingTroops, numOfDefendingTroops));
+            currentTable = BattleOdds.table;
+        }
+
+        return currentTable[numOfAttackingTroops][numOfDefendingTroops];
+    }
+}
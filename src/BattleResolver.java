@@ -0,0 +1,142 @@
+import java.util.SplittableRandom;
+
+/**
+ * A class that resolves battles without allocating any objects, so it can be used for live attacks and simulations.
+ * The result of a battle is a primitive long with the remaining troops of both sides packed in it.
+ * Every game has its own resolver, which can be seeded for reproducible games, and it is bound to the thread that runs the tasks of the game
+ * (see GameMailbox), so all the battles and simulations of the game use it. Threads that don't run a game have their own resolver,
+ * with a random generator split from a shared root.
+ */
+public class BattleResolver {
+    private static final SplittableRandom ROOT_RANDOM = new SplittableRandom(); // The generator that the random generators of threads are split from.
+    private static final ThreadLocal<BattleResolver> THREAD_RESOLVER = ThreadLocal.withInitial(BattleResolver::new); // The resolver of every thread.
+    private static final double[][][] ROUND_DISTRIBUTIONS = calculateRoundDistributions(); // The cumulative distributions of the attacker losses in a round, by number of attack and defend dice.
+
+    private final SplittableRandom random; // The random generator of the resolver.
+
+    /**
+     * A constructor that creates a resolver with a random generator split from the root generator.
+     */
+    public BattleResolver() {
+        this(splitRootRandom());
+    }
+
+    /**
+     * A constructor that sets the random generator of the resolver.
+     */
+    public BattleResolver(SplittableRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * A constructor that creates a resolver with a seeded random generator, for reproducible games.
+     * @param seed The seed of the random generator.
+     */
+    public BattleResolver(long seed) {
+        this(new SplittableRandom(seed));
+    }
+
+    /**
+     * @return A new random generator split from the root generator.
+     */
+    private static SplittableRandom splitRootRandom() {
+        synchronized (BattleResolver.ROOT_RANDOM) {
+            return BattleResolver.ROOT_RANDOM.split();
+        }
+    }
+
+    /**
+     * Turns the probabilities of the outcomes of a round from BattleOdds into cumulative distributions, so that an outcome can be sampled with one random number.
+     * @return The cumulative distributions, indexed by number of attack dice, number of defend dice and attacker losses.
+     */
+    private static double[][][] calculateRoundDistributions() {
+        double[][][] distributions = new double[4][3][];
+        for (int attackDice = 1; attackDice <= 3; attackDice++)
+            for (int defendDice = 1; defendDice <= 2; defendDice++) {
+                double[] outcomes = BattleOdds.getRoundOutcomes(attackDice, defendDice);
+                double[] distribution = new double[outcomes.length];
+                double sum = 0;
+                for (int losses = 0; losses < outcomes.length; losses++) {
+                    sum += outcomes[losses];
+                    distribution[losses] = sum;
+                }
+                distribution[outcomes.length - 1] = 1; // So rounding errors never leave a random number without an outcome.
+                distributions[attackDice][defendDice] = distribution;
+            }
+
+        return distributions;
+    }
+
+    /**
+     * @return The resolver of the current thread - the resolver of the game whose tasks it runs, or its own resolver.
+     */
+    public static BattleResolver current() {
+        return BattleResolver.THREAD_RESOLVER.get();
+    }
+
+    /**
+     * Makes a resolver the resolver of the current thread, until another one is bound.
+     * @param resolver The resolver.
+     * @return The previous resolver of the thread, to bind back when the work with this resolver is done.
+     */
+    public static BattleResolver bind(BattleResolver resolver) {
+        BattleResolver previousResolver = BattleResolver.THREAD_RESOLVER.get();
+        BattleResolver.THREAD_RESOLVER.set(resolver);
+        return previousResolver;
+    }
+
+    /**
+     * @return A new random generator split from the generator of this resolver, for running simulations in other threads.
+     */
+    public SplittableRandom split() {
+        return this.random.split();
+    }
+
+    /**
+     * Packs the result of a battle into a long.
+     * @param numOfAttackingTroops The remaining troops of the attacker.
+     * @param numOfDefendingTroops The remaining troops of the defender.
+     * @return The packed result.
+     */
+    public static long packResult(int numOfAttackingTroops, int numOfDefendingTroops) {
+        return ((long) numOfAttackingTroops << 32) | (numOfDefendingTroops & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param result A packed battle result.
+     * @return The remaining troops of the attacker.
+     */
+    public static int getRemainingAttackers(long result) {
+        return (int) (result >>> 32);
+    }
+
+    /**
+     * @param result A packed battle result.
+     * @return The remaining troops of the defender.
+     */
+    public static int getRemainingDefenders(long result) {
+        return (int) result;
+    }
+
+    /**
+     * Resolves a battle. Simulates rounds until the defense is out of troops or the offense has only 1 left.
+     * The outcome of every round is sampled from the precomputed distribution of the round.
+     * @param numOfAttackingTroops The number of troops on the attacking country.
+     * @param numOfDefendingTroops The number of troops on the defending country.
+     * @return The packed result of the battle, with the remaining number of troops on each side.
+     */
+    public long resolve(int numOfAttackingTroops, int numOfDefendingTroops) {
+        while (numOfAttackingTroops > 1 && numOfDefendingTroops > 0) {
+            int numOfAttackDice = Math.min(numOfAttackingTroops - 1, 3), numOfDefendDice = Math.min(numOfDefendingTroops, 2);
+            double[] distribution = BattleResolver.ROUND_DISTRIBUTIONS[numOfAttackDice][numOfDefendDice];
+            double randomNumber = this.random.nextDouble();
+            int attackerLosses = 0;
+            while (randomNumber >= distribution[attackerLosses]) attackerLosses++;
+
+            numOfAttackingTroops -= attackerLosses;
+            numOfDefendingTroops -= distribution.length - 1 - attackerLosses;
+        }
+
+        return packResult(numOfAttackingTroops, numOfDefendingTroops);
+    }
+}
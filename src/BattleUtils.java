@@ -1,62 +1,100 @@
-import javafx.util.Pair;
-
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Random;
-import java.util.stream.IntStream;
-
 /**
  * A class with static functions used for handling battles in the game.
  */
 public class BattleUtils {
-    private static final int NUM_OF_SIMULATIONS = 1000; // The number of simulations that should be run in the monte carlo algorithm.
-    private static Map<Pair<Integer, Integer>, Float> cache = new HashMap<>(); // A map for the cache of the percentageOfWinning function.
+    private static final double MONTE_CARLO_ERROR_BOUND = 0.01; // The error bound of probabilities that are calculated with the monte carlo algorithm.
+    private static final int DEFAULT_CACHE_CAPACITY = 4096; // The default maximum number of entries in the cache.
+    private static volatile OddsCache cache = new OddsCache(BattleUtils.DEFAULT_CACHE_CAPACITY, OddsCache.EvictionPolicy.LEAST_RECENTLY_USED); // The cache of the monte carlo algorithm, for battles too big for the exact table.
+
+    /**
+     * Replaces the cache of the monte carlo algorithm with a new empty one.
+     * @param capacity The maximum number of entries in the cache.
+     * @param evictionPolicy The policy for choosing which entry to evict when the cache is full.
+     */
+    public static void configureCache(int capacity, OddsCache.EvictionPolicy evictionPolicy) {
+        BattleUtils.cache = new OddsCache(capacity, evictionPolicy);
+    }
+
+    /**
+     * @return The cache of the monte carlo algorithm, for reading its statistics.
+     */
+    public static OddsCache getCache() {
+        return BattleUtils.cache;
+    }
 
     /**
      * Simulates a battle (with dice). Simulates rounds until the defense is out of troops or the offense has only 1 left.
+     * Uses the resolver of the current thread, so it doesn't allocate any objects.
      * @param numOfAttackingTroops The number of troops on the attacking country.
      * @param numOfDefendingTroops The number of troops on the defending country.
-     * @return A pair with the remaining number of troops on each side of the battle.
+     * @return The result of the battle, with the remaining number of troops on each side packed in it (read with BattleResolver).
      */
-    public static Pair<Integer, Integer> simulateBattle(int numOfAttackingTroops, int numOfDefendingTroops) {
-        Random random = new Random();
-
-        while (numOfAttackingTroops > 1 && numOfDefendingTroops > 0) {
-            int numOfAttackDice = Math.min(numOfAttackingTroops - 1, 3), numOfDefendDice = Math.min(numOfDefendingTroops, 2);
-            IntStream attackingDice = random.ints(numOfAttackDice, 1, 7).sorted().skip(Math.max(numOfAttackDice - numOfDefendDice, 0));
-            IntStream defendingDice = random.ints(numOfDefendDice, 1, 7).sorted().skip(Math.max(numOfDefendDice - numOfAttackDice, 0));
-
-            Iterator<Integer> attackingIterator = attackingDice.iterator(), defendingIterator = defendingDice.iterator();
-            while (attackingIterator.hasNext()) {
-                if (attackingIterator.next() > defendingIterator.next()) numOfDefendingTroops--;
-                else numOfAttackingTroops--;
-            }
-        }
-
-        return new Pair<>(numOfAttackingTroops, numOfDefendingTroops);
+    public static long simulateBattle(int numOfAttackingTroops, int numOfDefendingTroops) {
+        return BattleResolver.current().resolve(numOfAttackingTroops, numOfDefendingTroops);
     }
 
     /**
-     * Implementation of the monte carlo algorithm, to determine the probability of the attacker winning a battle in the game.
-     * Runs a large number of simulations and counts number of wins and number of losses for the attacker.
-     * The return values of the function are cached, so that a large number of simulations is only ran for new parameters.
+     * Determines the probability of the attacker winning a battle in the game.
+     * Battles that fit in the table of BattleOdds are calculated exactly. Bigger battles use the monte carlo algorithm.
      * @param numOfAttackingTroops The number of troops on the attacking country.
      * @param numOfDefendingTroops The number of troops on the defending country.
      * @return The probability the attacker wins the battle.
      */
     public static float percentageOfWinning(int numOfAttackingTroops, int numOfDefendingTroops) {
-        Pair<Integer, Integer> pair = new Pair<>(numOfAttackingTroops, numOfDefendingTroops);
-        if (BattleUtils.cache.containsKey(pair)) return BattleUtils.cache.get(pair);
+        if (BattleOdds.isInRange(numOfAttackingTroops, numOfDefendingTroops))
+            return (float) BattleOdds.getProbability(numOfAttackingTroops, numOfDefendingTroops);
+
+        return monteCarloPercentageOfWinning(numOfAttackingTroops, numOfDefendingTroops);
+    }
+
+    /**
+     * Determines the probability of the attacker winning a battle, with the error bound of the probability.
+     * Battles that fit in the table of BattleOdds are exact (error bound 0). Bigger battles use the monte carlo algorithm.
+     * @param numOfAttackingTroops The number of troops on the attacking country.
+     * @param numOfDefendingTroops The number of troops on the defending country.
+     * @param targetErrorBound The maximum error bound for battles that use the monte carlo algorithm.
+     * @return The estimate of the probability the attacker wins the battle.
+     */
+    public static OddsEstimate estimateOfWinning(int numOfAttackingTroops, int numOfDefendingTroops, double targetErrorBound) {
+        if (BattleOdds.isInRange(numOfAttackingTroops, numOfDefendingTroops))
+            return new OddsEstimate(BattleOdds.getProbability(numOfAttackingTroops, numOfDefendingTroops), 0, 0);
+
+        return MonteCarloOdds.estimate(numOfAttackingTroops, numOfDefendingTroops, targetErrorBound, Double.NaN);
+    }
+
+    /**
+     * Checks whether the probability of the attacker winning a battle is above a threshold.
+     * For battles that use the monte carlo algorithm, the simulations stop as soon as the answer is clear, so it is cheaper than percentageOfWinning.
+     * @param numOfAttackingTroops The number of troops on the attacking country.
+     * @param numOfDefendingTroops The number of troops on the defending country.
+     * @param threshold The threshold to compare the probability to.
+     * @return Whether the probability the attacker wins the battle is above the threshold.
+     */
+    public static boolean isProbabilityAbove(int numOfAttackingTroops, int numOfDefendingTroops, double threshold) {
+        if (BattleOdds.isInRange(numOfAttackingTroops, numOfDefendingTroops))
+            return BattleOdds.getProbability(numOfAttackingTroops, numOfDefendingTroops) > threshold;
 
-        int countAttackWins = 0;
-        for (int i = 0; i < BattleUtils.NUM_OF_SIMULATIONS; i++) {
-            int defendingTroopsAfterBattle = simulateBattle(numOfAttackingTroops, numOfDefendingTroops).getValue();
-            if (defendingTroopsAfterBattle == 0) countAttackWins++;
-        }
+        float cachedResult = BattleUtils.cache.get(OddsCache.getKey(numOfAttackingTroops, numOfDefendingTroops));
+        if (!Float.isNaN(cachedResult)) return cachedResult > threshold;
+
+        return MonteCarloOdds.estimate(numOfAttackingTroops, numOfDefendingTroops, BattleUtils.MONTE_CARLO_ERROR_BOUND, threshold).getProbability() > threshold;
+    }
+
+    /**
+     * Determines the probability of the attacker winning a battle with the monte carlo algorithm.
+     * The return values of the function are cached, so that simulations are only ran for new parameters.
+     * @param numOfAttackingTroops The number of troops on the attacking country.
+     * @param numOfDefendingTroops The number of troops on the defending country.
+     * @return The probability the attacker wins the battle.
+     */
+    private static float monteCarloPercentageOfWinning(int numOfAttackingTroops, int numOfDefendingTroops) {
+        OddsCache cache = BattleUtils.cache;
+        long key = OddsCache.getKey(numOfAttackingTroops, numOfDefendingTroops);
+        float cachedResult = cache.get(key);
+        if (!Float.isNaN(cachedResult)) return cachedResult;
 
-        float result = (float) countAttackWins / BattleUtils.NUM_OF_SIMULATIONS;
-        cache.put(pair, result);
+        float result = (float) MonteCarloOdds.estimate(numOfAttackingTroops, numOfDefendingTroops, BattleUtils.MONTE_CARLO_ERROR_BOUND, Double.NaN).getProbability();
+        cache.put(key, result);
         return result;
     }
 }
@@ -0,0 +1,147 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A precompiled binary format of maps, for maps with many countries, which is read without parsing.
+ * All the numbers are big endian ints, and the adjacency is kept as CSR (compressed sparse rows) - the neighbors of all the countries
+ * one after the other, and the offset of the neighbors of every country:
+ * magic, version, number of countries, number of continents, total number of neighbors,
+ * the bonus of every continent, the continent of every country, the neighbor offset of every country and the end offset,
+ * the neighbor ids, and then the names of the continents and the countries (unsigned short length and UTF-8 bytes).
+ * Files are memory mapped, the arrays are read in bulk, and everything is validated before it is used.
+ */
+public class BinaryMapFormat implements MapFormat {
+    public static final String EXTENSION = ".rmap"; // The extension of binary map files.
+    private static final int MAGIC = 0x524D4150; // The first int of binary map files ("RMAP").
+    private static final int VERSION = 1; // The version of the format.
+    private static final int HEADER_BYTES = 5 * 4; // The number of bytes before the arrays.
+
+    @Override
+    public MapTopology read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1 << 16];
+        for (int numOfBytes = inputStream.read(chunk); numOfBytes != -1; numOfBytes = inputStream.read(chunk))
+            bytes.write(chunk, 0, numOfBytes);
+        return this.read(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    /**
+     * Reads a map from a file, by mapping it to memory.
+     * @param file The path of the file.
+     * @return The topology of the map.
+     * @throws IOException If the file can't be read or the map is invalid.
+     */
+    @Override
+    public MapTopology read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return this.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads a map from a buffer with the bytes of a binary map file.
+     * @param buffer The buffer, from its position.
+     * @return The topology of the map.
+     * @throws IOException If the map is invalid.
+     */
+    public MapTopology read(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.remaining() < BinaryMapFormat.HEADER_BYTES || buffer.getInt() != BinaryMapFormat.MAGIC)
+                throw new IOException("Invalid map: not a binary map file");
+            int version = buffer.getInt();
+            if (version != BinaryMapFormat.VERSION) throw new IOException("Invalid map: unknown version " + version);
+
+            int numOfCountries = buffer.getInt(), numOfContinents = buffer.getInt(), numOfNeighbors = buffer.getInt();
+            if (numOfCountries < 0 || numOfContinents < 0 || numOfNeighbors < 0)
+                throw new IOException("Invalid map: negative sizes");
+            long arrayBytes = 4L * ((long) numOfContinents + numOfCountries + numOfCountries + 1 + numOfNeighbors);
+            if (arrayBytes > buffer.remaining()) throw new IOException("Invalid map: the file is too short for its sizes");
+
+            IntBuffer ints = buffer.asIntBuffer();
+            int[] continentBonuses = new int[numOfContinents], countryContinents = new int[numOfCountries];
+            int[] neighborOffsets = new int[numOfCountries + 1], neighborIds = new int[numOfNeighbors];
+            ints.get(continentBonuses).get(countryContinents).get(neighborOffsets).get(neighborIds);
+            buffer.position(buffer.position() + (int) arrayBytes);
+
+            for (int continent : countryContinents)
+                if (continent < 0 || continent >= numOfContinents) throw new IOException("Invalid map: a country has an invalid continent " + continent);
+            if (neighborOffsets[0] != 0 || neighborOffsets[numOfCountries] != numOfNeighbors)
+                throw new IOException("Invalid map: the neighbor offsets don't cover the neighbors");
+            for (int countryId = 0; countryId < numOfCountries; countryId++) // All the offsets are checked before anything is copied, so they are between 0 and numOfNeighbors.
+                if (neighborOffsets[countryId + 1] < neighborOffsets[countryId])
+                    throw new IOException("Invalid map: the neighbor offsets aren't in order");
+            int[][] neighbors = new int[numOfCountries][];
+            for (int countryId = 0; countryId < numOfCountries; countryId++)
+                neighbors[countryId] = Arrays.copyOfRange(neighborIds, neighborOffsets[countryId], neighborOffsets[countryId + 1]);
+
+            String[] continentNames = new String[numOfContinents], countryNames = new String[numOfCountries];
+            for (int continent = 0; continent < numOfContinents; continent++)
+                continentNames[continent] = readString(buffer);
+            for (int countryId = 0; countryId < numOfCountries; countryId++)
+                countryNames[countryId] = readString(buffer);
+
+            MapTopology topology = new MapTopology(countryNames, neighbors, countryContinents, continentNames, continentBonuses);
+            MapFormat.validate(topology);
+            return topology;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Invalid map: the file is too short for its names", e);
+        }
+    }
+
+    /**
+     * @param buffer A buffer, at the position of a string (unsigned short length and UTF-8 bytes).
+     * @return The string. The position of the buffer is moved after it.
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(MapTopology topology, OutputStream outputStream) throws IOException {
+        int numOfCountries = topology.getNumOfCountries(), numOfContinents = topology.getNumOfContinents(), numOfNeighbors = 0;
+        for (int countryId = 0; countryId < numOfCountries; countryId++)
+            numOfNeighbors += topology.getNeighbors(countryId).length;
+
+        byte[][] names = new byte[numOfContinents + numOfCountries][];
+        int namesBytes = 0;
+        for (int i = 0; i < names.length; i++) {
+            String name = i < numOfContinents ? topology.getContinentName(i) : topology.getCountryName(i - numOfContinents);
+            names[i] = name.getBytes(StandardCharsets.UTF_8);
+            if (names[i].length > 0xFFFF) throw new IOException("The name " + name + " is too long");
+            namesBytes += 2 + names[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(BinaryMapFormat.HEADER_BYTES + 4 * (numOfContinents + 2 * numOfCountries + 1 + numOfNeighbors) + namesBytes);
+        buffer.putInt(BinaryMapFormat.MAGIC).putInt(BinaryMapFormat.VERSION).putInt(numOfCountries).putInt(numOfContinents).putInt(numOfNeighbors);
+        for (int continent = 0; continent < numOfContinents; continent++)
+            buffer.putInt(topology.getContinentBonus(continent));
+        for (int countryId = 0; countryId < numOfCountries; countryId++)
+            buffer.putInt(topology.getContinent(countryId));
+        int neighborOffset = 0;
+        for (int countryId = 0; countryId < numOfCountries; countryId++) {
+            buffer.putInt(neighborOffset);
+            neighborOffset += topology.getNeighbors(countryId).length;
+        }
+        buffer.putInt(neighborOffset);
+        for (int countryId = 0; countryId < numOfCountries; countryId++)
+            for (int neighborId : topology.getNeighbors(countryId))
+                buffer.putInt(neighborId);
+        for (byte[] name : names)
+            buffer.putShort((short) name.length).put(name);
+
+        outputStream.write(buffer.array());
+        outputStream.flush();
+    }
+}
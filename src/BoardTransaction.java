@@ -0,0 +1,138 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A copy-on-write overlay over the live countries of a game, for trying out moves without changing the game.
+ * Changes are kept only for the countries that were touched, and reads of other countries fall through to the live objects.
+ * A transaction is begun, changed and evaluated, and then committed to the live countries or discarded.
+ * The same object can be reused for many transactions, so exploring moves doesn't allocate.
+ */
+public class BoardTransaction {
+    private final Player[] owners; // The owner of every touched country in the transaction.
+    private final int[] troops; // The number of troops of every touched country in the transaction.
+    private final boolean[] isTouched; // Whether every country was changed in the transaction.
+    private final List<Country> touchedCountries; // The countries that were changed in the transaction, in the order they were first changed.
+    private boolean isActive; // Whether the transaction was begun and not committed or discarded yet.
+
+    /**
+     * A constructor that creates an inactive transaction over the countries.
+     * @param countries The array of countries.
+     */
+    public BoardTransaction(Country[] countries) {
+        this.owners = new Player[countries.length];
+        this.troops = new int[countries.length];
+        this.isTouched = new boolean[countries.length];
+        this.touchedCountries = new ArrayList<>();
+    }
+
+    /**
+     * Begins a new transaction. Any changes that weren't committed are discarded.
+     */
+    public void begin() {
+        this.discard();
+        this.isActive = true;
+    }
+
+    public boolean isActive() {
+        return this.isActive;
+    }
+
+    /**
+     * @return The number of countries that were changed in the transaction.
+     */
+    public int getNumOfChanges() {
+        return this.touchedCountries.size();
+    }
+
+    /**
+     * @param country A country.
+     * @return The owner of the country in the transaction.
+     */
+    public Player getOwner(Country country) {
+        return this.isTouched[country.getId()] ? this.owners[country.getId()] : country.getOwner();
+    }
+
+    /**
+     * @param country A country.
+     * @return The number of troops in the country in the transaction.
+     */
+    public int getNumOfTroops(Country country) {
+        return this.isTouched[country.getId()] ? this.troops[country.getId()] : country.getNumOfTroops();
+    }
+
+    /**
+     * Copies the state of a country to the overlay, the first time it is changed in the transaction.
+     * @param country The country that is about to change.
+     */
+    private void touch(Country country) {
+        if (!this.isActive) throw new IllegalStateException("The transaction wasn't begun");
+
+        int countryId = country.getId();
+        if (!this.isTouched[countryId]) {
+            this.isTouched[countryId] = true;
+            this.owners[countryId] = country.getOwner();
+            this.troops[countryId] = country.getNumOfTroops();
+            this.touchedCountries.add(country);
+        }
+    }
+
+    /**
+     * Adds troops to a country in the transaction.
+     * @param country The country.
+     * @param troopsToAdd The number of troops to add (can be negative).
+     */
+    public void addTroops(Country country, int troopsToAdd) {
+        this.touch(country);
+        this.troops[country.getId()] += troopsToAdd;
+    }
+
+    /**
+     * Sets both a new owner and a new number of troops for a country in the transaction.
+     * @param country The country.
+     * @param owner The new player that controls the country.
+     * @param numOfTroops The number of troops that are now in the country.
+     */
+    public void occupy(Country country, Player owner, int numOfTroops) {
+        this.touch(country);
+        this.owners[country.getId()] = owner;
+        this.troops[country.getId()] = numOfTroops;
+    }
+
+    /**
+     * Applies the changes of the transaction to the live countries and ends it. Countries that ended up
+     * the same as they were aren't changed.
+     * @return The countries that were changed.
+     */
+    public List<Country> commit() {
+        if (!this.isActive) throw new IllegalStateException("The transaction wasn't begun");
+
+        List<Country> changedCountries = new ArrayList<>();
+        for (Country country : this.touchedCountries) {
+            Player owner = this.owners[country.getId()];
+            int numOfTroops = this.troops[country.getId()];
+            if (owner != country.getOwner()) {
+                if (country.getOwner() != null) country.getOwner().removeCountry(country);
+                owner.addCountry(country, numOfTroops);
+                changedCountries.add(country);
+            } else if (numOfTroops != country.getNumOfTroops()) {
+                country.addTroops(numOfTroops - country.getNumOfTroops());
+                changedCountries.add(country);
+            }
+        }
+
+        this.discard();
+        return changedCountries;
+    }
+
+    /**
+     * Throws away the changes of the transaction and ends it. Only the touched countries are reset.
+     */
+    public void discard() {
+        for (Country country : this.touchedCountries) {
+            this.isTouched[country.getId()] = false;
+            this.owners[country.getId()] = null;
+        }
+        this.touchedCountries.clear();
+        this.isActive = false;
+    }
+}
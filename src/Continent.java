@@ -1,5 +1,4 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
  * A class representing a continent on the map of the game.
@@ -8,6 +7,13 @@ public class Continent {
     private String name; // The name of the continent.
     private List<Country> countries; // A list of the countries in the continent.
     private int troopsBonus; // The number of troops a player gets if he controls all the countries in this continent at the beginning of his turn.
+    private BitSet countryIds; // A set of the ids of the countries in the continent.
+    private List<Country> borders; // An immutable list of the countries in the continent that have neighbors outside of it.
+    private List<Country> innerCountries; // An immutable list of the countries in the continent that don't have neighbors outside of it.
+    private Map<Country, List<Country>> outsideNeighbors; // An immutable map from every border to its neighbors outside of the continent.
+    private Map<Player, int[]> playerStats; // The number of countries and troops every player has in the continent, kept up to date by the countries.
+    private int numOfTroops; // The total number of troops in the continent.
+    private Player owner; // The player that controls all the countries in the continent, or null.
 
     /**
      * A constructor that sets object variables.
@@ -16,6 +22,7 @@ public class Continent {
         this.name = name;
         this.troopsBonus = troopsBonus;
         this.countries = new ArrayList<>();
+        this.playerStats = new IdentityHashMap<>();
     }
 
     /**
@@ -26,6 +33,10 @@ public class Continent {
         this.countries.add(country);
     }
 
+    public String getName() {
+        return this.name;
+    }
+
     public List<Country> getCountries() {
         return this.countries;
     }
@@ -35,27 +46,123 @@ public class Continent {
     }
 
     public Player getOwner() {
-        Player owner = this.countries.get(0).getOwner();
-        for (Country country : this.countries) {
-            if (owner != country.getOwner())
-                return null;
+        return this.owner;
+    }
+
+    /**
+     * Updates the aggregates of the continent after a country in it changed. Called by the country.
+     * @param oldOwner The previous owner of the country (null if it didn't have one).
+     * @param oldNumOfTroops The previous number of troops in the country.
+     * @param newOwner The new owner of the country.
+     * @param newNumOfTroops The new number of troops in the country.
+     */
+    public void countryChanged(Player oldOwner, int oldNumOfTroops, Player newOwner, int newNumOfTroops) {
+        if (oldOwner != null) {
+            int[] oldOwnerStats = this.playerStats.get(oldOwner);
+            oldOwnerStats[0]--;
+            oldOwnerStats[1] -= oldNumOfTroops;
+        }
+        if (newOwner != null) {
+            int[] newOwnerStats = this.playerStats.computeIfAbsent(newOwner, player -> new int[2]);
+            newOwnerStats[0]++;
+            newOwnerStats[1] += newNumOfTroops;
         }
+        this.numOfTroops += newNumOfTroops - oldNumOfTroops;
 
-        return owner;
+        if (newOwner != null && this.getNumOfCountries(newOwner) == this.countries.size()) this.owner = newOwner;
+        else if (this.owner == oldOwner && oldOwner != newOwner) this.owner = null;
     }
 
-    public List<Country> getBorders() {
-        List<Integer> continentIds = new ArrayList<>();
+    /**
+     * @param player A player.
+     * @return The number of countries the player controls in the continent.
+     */
+    public int getNumOfCountries(Player player) {
+        int[] stats = this.playerStats.get(player);
+        return stats == null ? 0 : stats[0];
+    }
+
+    /**
+     * @param player A player.
+     * @return The number of troops the player has in the continent.
+     */
+    public int getNumOfTroops(Player player) {
+        int[] stats = this.playerStats.get(player);
+        return stats == null ? 0 : stats[1];
+    }
+
+    public int getNumOfTroops() {
+        return this.numOfTroops;
+    }
+
+    /**
+     * Calculates the static topology of the continent - its borders, inner countries and the neighbors of the borders outside of it.
+     * The map never changes, so this is called once when the map is loaded (after the neighbors of the countries are linked).
+     */
+    public void initTopology() {
+        this.countryIds = new BitSet();
         for (Country country : this.countries)
-            continentIds.add(country.getId());
+            this.countryIds.set(country.getId());
 
-        List<Country> borders = new ArrayList<>();
+        List<Country> borders = new ArrayList<>(), innerCountries = new ArrayList<>();
+        Map<Country, List<Country>> outsideNeighbors = new LinkedHashMap<>();
         for (Country country : this.countries) {
-            if (!continentIds.containsAll(country.getNeighbors()))
+            List<Country> countryOutsideNeighbors = new ArrayList<>();
+            for (Country neighbor : country.getNeighborCountries())
+                if (!this.countryIds.get(neighbor.getId()))
+                    countryOutsideNeighbors.add(neighbor);
+
+            if (countryOutsideNeighbors.isEmpty()) innerCountries.add(country);
+            else {
                 borders.add(country);
+                outsideNeighbors.put(country, Collections.unmodifiableList(countryOutsideNeighbors));
+            }
         }
 
-        return borders;
+        this.borders = Collections.unmodifiableList(borders);
+        this.innerCountries = Collections.unmodifiableList(innerCountries);
+        this.outsideNeighbors = Collections.unmodifiableMap(outsideNeighbors);
+    }
+
+    /**
+     * @param country A country.
+     * @return Whether the country is in the continent.
+     */
+    public boolean contains(Country country) {
+        return this.countryIds.get(country.getId());
+    }
+
+    public List<Country> getBorders() {
+        return this.borders;
+    }
+
+    public List<Country> getInnerCountries() {
+        return this.innerCountries;
+    }
+
+    /**
+     * @param border A border of the continent.
+     * @return The neighbors of the border that are outside of the continent.
+     */
+    public List<Country> getOutsideNeighbors(Country border) {
+        return this.outsideNeighbors.getOrDefault(border, Collections.emptyList());
+    }
+
+    /**
+     * Finds the closest border of the continent to all the countries of a player, with a single search.
+     * @param player A player.
+     * @param countries The countries array.
+     * @return An array with the border that is closest (in number of troops on the way) to every country of the player, indexed by country id.
+     * Borders controlled by the player get themselves and countries that can't reach the continent get null.
+     */
+    public Country[] getClosestBordersToPlayer(Player player, Country[] countries) {
+        int[] distances = new int[countries.length], closestBorderIndexes = new int[countries.length];
+        PathFinder.forCurrentThread().searchFromPlayerToTargets(player, this.getBorders(), countries, distances, closestBorderIndexes);
+        Country[] closestBorders = new Country[countries.length];
+        for (int i = 0; i < countries.length; i++)
+            if (closestBorderIndexes[i] != -1) closestBorders[i] = this.getBorders().get(closestBorderIndexes[i]);
+
+        return closestBorders;
     }
 
     /**
@@ -67,14 +174,7 @@ public class Continent {
      */
     public float getContinentRating(Player player) {
         float basicRating = (15 + this.troopsBonus - 4 * this.getBorders().size()) / (float) this.countries.size();
-        int numOfPlayerTerritories = 0, numOfPlayerArmies = 0, numOfArmies = 0;
-        for (Country country : this.countries) {
-            numOfArmies += country.getNumOfTroops();
-            if (country.getOwner() == player) {
-                numOfPlayerArmies += country.getNumOfTroops();
-                numOfPlayerTerritories++;
-            }
-        }
+        int numOfPlayerTerritories = this.getNumOfCountries(player), numOfPlayerArmies = this.getNumOfTroops(player), numOfArmies = this.numOfTroops;
 
         return (((float) numOfPlayerArmies / numOfArmies + (float) numOfPlayerTerritories / this.countries.size()) / 2) * basicRating;
     }
@@ -1,5 +1,3 @@
-import javafx.util.Pair;
-
 import java.util.*;
 
 /**
@@ -7,25 +5,26 @@ import java.util.*;
  */
 public class Country implements Comparable<Country> {
     private int id; // The id of the country, also its index in the countries array in GameManager class.
-    private String name; // The name of the country.
+    private MapTopology topology; // The topology of the map, with the name and neighbors of the country. Shared by all the games.
     private Continent continent; // The continent the country is in.
-    private List<Integer> neighbors; // A list of the ids of the countries that are neighbors of the country.
+    private List<Country> neighborCountries; // An immutable list of the countries that are neighbors of the country (set when the map is loaded).
     private Player owner; // The player that controls the country.
     private int numOfTroops; // The number of troops that are in the country.
+    private int numOfEnemyNeighbors; // The number of neighbors that are controlled by other players, kept up to date on every change.
+    private int enemyTroopsOnBorder; // The total number of troops on neighbors that are controlled by other players, kept up to date on every change.
 
     /**
      * A constructor that sets object variables.
      */
-    public Country(int id, String name, Continent continent, List<Integer> neighbors) {
+    public Country(MapTopology topology, int id, Continent continent) {
         this.id = id;
-        this.name = name;
+        this.topology = topology;
         this.continent = continent;
-        this.neighbors = neighbors;
         this.owner = null;
     }
 
     public String getName() {
-        return this.name;
+        return this.topology.getCountryName(this.id);
     }
 
     public Player getOwner() {
@@ -38,111 +37,132 @@ public class Country implements Comparable<Country> {
      * @param numOfTroops The number of troops that are now in the country.
      */
     public void occupy(Player owner, int numOfTroops) {
-        System.out.println(this.name + " occupied by " + owner.getName() + " with " + numOfTroops);
+        System.out.println(this.getName() + " occupied by " + owner.getName() + " with " + numOfTroops);
+        this.setState(owner, numOfTroops);
+    }
+
+    /**
+     * Sets the owner and number of troops of the country. All the changes to the country go through here,
+     * so that the aggregates that depend on it are kept up to date.
+     * @param owner The player that controls the country.
+     * @param numOfTroops The number of troops that are in the country.
+     */
+    private void setState(Player owner, int numOfTroops) {
+        Player oldOwner = this.owner;
+        int oldNumOfTroops = this.numOfTroops;
+        this.continent.countryChanged(oldOwner, oldNumOfTroops, owner, numOfTroops);
         this.owner = owner;
         this.numOfTroops = numOfTroops;
+        this.updateFrontier(oldOwner, oldNumOfTroops);
     }
 
-    public int getNumOfTroops() {
-        return this.numOfTroops;
+    /**
+     * Updates the frontier index after the country changed - the enemy neighbor counts and enemy troops of the country and
+     * its neighbors, and the frontier sets of the players. Two countries are enemies if they don't have the same owner.
+     * @param oldOwner The previous owner of the country.
+     * @param oldNumOfTroops The previous number of troops in the country.
+     */
+    private void updateFrontier(Player oldOwner, int oldNumOfTroops) {
+        for (Country neighbor : this.neighborCountries) {
+            boolean wasEnemy = neighbor.owner != oldOwner, isEnemy = neighbor.owner != this.owner;
+            int enemyNeighborsChange = (isEnemy ? 1 : 0) - (wasEnemy ? 1 : 0);
+            this.numOfEnemyNeighbors += enemyNeighborsChange;
+            this.enemyTroopsOnBorder += (isEnemy ? neighbor.numOfTroops : 0) - (wasEnemy ? neighbor.numOfTroops : 0);
+            neighbor.numOfEnemyNeighbors += enemyNeighborsChange;
+            neighbor.enemyTroopsOnBorder += (isEnemy ? this.numOfTroops : 0) - (wasEnemy ? oldNumOfTroops : 0);
+            if (enemyNeighborsChange != 0 && neighbor.owner != null) neighbor.owner.updateFrontier(neighbor);
+        }
+
+        if (oldOwner != null && oldOwner != this.owner) oldOwner.updateFrontier(this);
+        if (this.owner != null) this.owner.updateFrontier(this);
     }
 
-    public List<Integer> getNeighbors() {
-        return this.neighbors;
+    public int getNumOfEnemyNeighbors() {
+        return this.numOfEnemyNeighbors;
     }
 
-    public int getId() {
-        return this.id;
+    public int getEnemyTroopsOnBorder() {
+        return this.enemyTroopsOnBorder;
     }
 
-    public Continent getContinent() {
-        return this.continent;
+    /**
+     * @return The neighbor controlled by another player with the fewest troops (the first one if there are a few), or null if there isn't one.
+     */
+    public Country getWeakestEnemyNeighbor() {
+        if (this.numOfEnemyNeighbors == 0) return null;
+
+        Country weakestNeighbor = null;
+        for (Country neighbor : this.neighborCountries)
+            if (neighbor.owner != this.owner && (weakestNeighbor == null || neighbor.numOfTroops < weakestNeighbor.numOfTroops))
+                weakestNeighbor = neighbor;
+        return weakestNeighbor;
+    }
+
+    public int getNumOfTroops() {
+        return this.numOfTroops;
     }
 
     /**
-     * Add troops to the country.
-     * @param troopsToAdd The number of troops to add.
+     * @return The ids of the countries that are neighbors of the country. Shared by all the games, so it shouldn't be modified.
      */
-    public void addTroops(int troopsToAdd) {
-        System.out.println(this.owner.getName() + " adding " + troopsToAdd + " troops to " + this.name);
-        this.numOfTroops += troopsToAdd;
+    public int[] getNeighbors() {
+        return this.topology.getNeighbors(this.id);
     }
 
     /**
-     * A recursive function that populates the graph with nodes for all the connected countries around this country, that aren't controlled by the attacker.
-     * This is done by every country adding its neighbors, and calling the function with them.
-     * @param attacker The attacking player.
-     * @param graph The graph to populate.
+     * Links the country to the objects of its neighbors. Called once when the game is created.
      * @param countries The array of countries.
      */
-    private void populateGraphWithConnectedRivalCountries(Player attacker, Map<Integer, Node> graph, Country[] countries) {
-        for (int countryId : this.neighbors) {
-            Country neighbor = countries[countryId];
-            if (!graph.containsKey(countryId) && neighbor.owner != attacker) {
-                graph.put(countryId, new Node(neighbor));
-                neighbor.populateGraphWithConnectedRivalCountries(attacker, graph, countries);
-            }
-        }
+    public void linkNeighbors(Country[] countries) {
+        int[] neighbors = this.getNeighbors();
+        Country[] neighborCountries = new Country[neighbors.length];
+        for (int i = 0; i < neighborCountries.length; i++)
+            neighborCountries[i] = countries[neighbors[i]];
+        this.neighborCountries = Collections.unmodifiableList(Arrays.asList(neighborCountries));
+    }
+
+    public List<Country> getNeighborCountries() {
+        return this.neighborCountries;
     }
 
     /**
-     * Creates a graph for dijkstra algorithm. It contains the attacking country, and all of the countries that are
-     * controlled by rival players, and are connected to the attacking country.
-     * The node of this country is set to 0 as the beginning of the graph, and all others are set to infinity.
-     * @param countries The array of countries.
-     * @return A graph, as a map of country id as keys and node objects as values.
+     * @param countryId A country id.
+     * @return Whether the country is a neighbor of this country.
      */
-    private Map<Integer, Node> createInitialGraph(Country[] countries) {
-        Map<Integer, Node> graph = new HashMap<>();
-        Node initialNode = new Node(this);
-        initialNode.setNewPath(null, 0);
-        graph.put(this.id, initialNode);
-        this.populateGraphWithConnectedRivalCountries(this.owner, graph, countries);
-        return graph;
+    public boolean isNeighbor(int countryId) {
+        return this.topology.isNeighbor(this.id, countryId);
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public Continent getContinent() {
+        return this.continent;
     }
 
     /**
-     * Creates a Dijkstra graph from this country to countryToFind.
-     * @param countryToFind The country we are trying to find.
-     * @param countries The array of countries.
-     * @return The graph node of the countryToFind, connected to the other nodes accordingly and with the appropriate weight.
+     * Add troops to the country.
+     * @param troopsToAdd The number of troops to add.
      */
-    private Node createDijkstraGraph(Country countryToFind, Country[] countries) {
-        Map<Integer, Node> graph = createInitialGraph(countries);
-
-        Node pathNode = graph.get(countryToFind.id);
-        if (pathNode != null)
-            while (!graph.isEmpty()) {
-                Node node = Collections.min(graph.values());
-                graph.remove(node.getCountry().id);
-                if (node.getCountry() != countryToFind && node.getDistance() < pathNode.getDistance()) {
-                    for (int neighbor : node.getCountry().neighbors) {
-                        if (graph.containsKey(neighbor)) {
-                            Node neighborNode = graph.get(neighbor);
-                            if (node.getDistance() + neighborNode.getCountry().numOfTroops < neighborNode.getDistance())
-                                neighborNode.setNewPath(node, node.getDistance() + neighborNode.getCountry().numOfTroops);
-                        }
-                    }
-                }
-            }
-        return pathNode;
+    public void addTroops(int troopsToAdd) {
+        System.out.println(this.owner.getName() + " adding " + troopsToAdd + " troops to " + this.getName());
+        this.setState(this.owner, this.numOfTroops + troopsToAdd);
     }
 
     /**
-     * An implementation of the dijkstra algorithm, in order to determine the shortest path from this country to another.
+     * Finds the shortest path from this country to another.
      * The path can only go through countries controlled by other players.
      * @param countryToFind The country to find a path to.
      * @param countries The countries array.
      * @return A stack with the countries creating the shortest path. The first country is the first country to conquer.
      */
     public Stack<Country> getPathToRival(Country countryToFind, Country[] countries) {
-        Node pathNode = createDijkstraGraph(countryToFind, countries);
+        PathFinder pathFinder = PathFinder.forCurrentThread();
         Stack<Country> path = new Stack<>();
-        if (pathNode != null)
-            while (pathNode.getPrevNode() != null) {
-                path.push(pathNode.getCountry());
-                pathNode = pathNode.getPrevNode();
-            }
+        if (pathFinder.search(this, countryToFind, countries))
+            for (int countryId = countryToFind.id; pathFinder.getPreviousCountry(countryId) != PathFinder.NO_COUNTRY; countryId = pathFinder.getPreviousCountry(countryId))
+                path.push(countries[countryId]);
 
         return path;
     }
@@ -153,20 +173,9 @@ public class Country implements Comparable<Country> {
      * @return Get the border of the continent that is closest to this country.
      */
     public Country getClosestContinentBorder(Continent continent, Country[] countries) {
-        Country closestBorder = null;
-        int distanceOfClosestBorder = Integer.MAX_VALUE;
-        for (Country border : continent.getBorders()) {
-            Node graphNode = createDijkstraGraph(border, countries);
-            if (graphNode != null) {
-                int distanceOfBorder = graphNode.getDistance();
-                if (distanceOfBorder < distanceOfClosestBorder) {
-                    closestBorder = border;
-                    distanceOfClosestBorder = distanceOfBorder;
-                }
-            }
-        }
-
-        return closestBorder;
+        List<Country> borders = continent.getBorders();
+        int closestBorderIndex = PathFinder.forCurrentThread().searchClosest(this, borders, countries);
+        return closestBorderIndex == -1 ? null : borders.get(closestBorderIndex);
     }
 
     /**
@@ -175,19 +184,11 @@ public class Country implements Comparable<Country> {
      * @return The distance (in number of troops on the way) of this country from the continent (from the closest border).
      */
     public int getDistanceFromContinent(Continent continent, Country[] countries) {
-        if (continent.getCountries().contains(this)) return 0;
-        int distanceOfClosestBorder = Integer.MAX_VALUE;
-        for (Country border : continent.getBorders()) {
-            Node graphNode = this.createDijkstraGraph(border, countries);
-            if (graphNode != null) {
-                int distanceOfBorder = graphNode.getDistance();
-                if (distanceOfBorder < distanceOfClosestBorder) {
-                    distanceOfClosestBorder = distanceOfBorder;
-                }
-            }
-        }
-
-        return distanceOfClosestBorder;
+        if (this.continent == continent) return 0;
+        List<Country> borders = continent.getBorders();
+        PathFinder pathFinder = PathFinder.forCurrentThread();
+        int closestBorderIndex = pathFinder.searchClosest(this, borders, countries);
+        return closestBorderIndex == -1 ? Integer.MAX_VALUE : pathFinder.getDistance(borders.get(closestBorderIndex).id);
     }
 
     /**
@@ -197,23 +198,28 @@ public class Country implements Comparable<Country> {
      * @return Whether the attack was a success.
      */
     public boolean attack(Country countryToAttack, boolean moveAllTroopsOnWin) {
-        Pair<Integer, Integer> battleResults = BattleUtils.simulateBattle(this.numOfTroops, countryToAttack.numOfTroops);
-        System.out.println("Battle results: " + this.name + " - " + battleResults.getKey() + ", " + countryToAttack.name + " - " + battleResults.getValue());
-        if (battleResults.getValue() == 0) {
-            if (moveAllTroopsOnWin) {
-                this.numOfTroops = 1;
-                countryToAttack.owner.removeCountry(countryToAttack);
-                this.owner.addCountry(countryToAttack, battleResults.getKey() - 1);
-            } else {
-                this.numOfTroops = battleResults.getKey() - 1;
-                countryToAttack.owner.removeCountry(countryToAttack);
-                this.owner.addCountry(countryToAttack, 1);
-            }
-            return true;
+        long battleResults = BattleUtils.simulateBattle(this.numOfTroops, countryToAttack.numOfTroops);
+        int remainingAttackers = BattleResolver.getRemainingAttackers(battleResults), remainingDefenders = BattleResolver.getRemainingDefenders(battleResults);
+        System.out.println("Battle results: " + this.getName() + " - " + remainingAttackers + ", " + countryToAttack.getName() + " - " + remainingDefenders);
+        this.applyBattleResult(countryToAttack, remainingAttackers, remainingDefenders, moveAllTroopsOnWin ? remainingAttackers - 1 : 1);
+        return remainingDefenders == 0;
+    }
+
+    /**
+     * Applies the result of a battle with another country. If the defense is out of troops, the country is conquered.
+     * @param countryToAttack The country that was attacked.
+     * @param remainingAttackers The number of troops left on this country at the end of the battle.
+     * @param remainingDefenders The number of troops left on the attacked country at the end of the battle.
+     * @param troopsToMove The number of troops that move to the attacked country if it was conquered.
+     */
+    public void applyBattleResult(Country countryToAttack, int remainingAttackers, int remainingDefenders, int troopsToMove) {
+        if (remainingDefenders == 0) {
+            this.setState(this.owner, remainingAttackers - troopsToMove);
+            countryToAttack.owner.removeCountry(countryToAttack);
+            this.owner.addCountry(countryToAttack, troopsToMove);
         } else {
-            this.numOfTroops = battleResults.getKey();
-            countryToAttack.numOfTroops = battleResults.getValue();
-            return false;
+            this.setState(this.owner, remainingAttackers);
+            countryToAttack.setState(countryToAttack.owner, remainingDefenders);
         }
     }
 
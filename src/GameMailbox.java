@@ -0,0 +1,84 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A mailbox that runs the tasks of a single game one after the other, in the order they were sent, on a shared executor.
+ * It never takes more than one thread of the executor, and doesn't take any thread when it is empty,
+ * so many games can run in parallel on a few threads, while every game is only changed by one thread at a time.
+ * The battle resolver of the game is bound to the thread while the tasks run, so the battles of the game don't depend on the thread it got.
+ */
+public class GameMailbox implements Executor {
+    private static final int MAX_TASKS_PER_RUN = 64; // The maximum number of tasks that run before the thread is given back to the executor, so busy games don't starve the others.
+
+    private final Executor executor; // The shared executor the tasks run on.
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // The tasks that wait to run.
+    private final AtomicBoolean isScheduled = new AtomicBoolean(); // Whether the mailbox is running or waiting in the executor.
+    private final BattleResolver resolver; // The battle resolver of the game.
+
+    /**
+     * A constructor that sets object variables.
+     * @param executor The shared executor the tasks run on.
+     * @param resolver The battle resolver of the game.
+     */
+    public GameMailbox(Executor executor, BattleResolver resolver) {
+        this.executor = executor;
+        this.resolver = resolver;
+    }
+
+    /**
+     * Sends a task to the mailbox. Returns immediately, and the task runs after all the tasks that were sent before it.
+     * @param task The task.
+     */
+    @Override
+    public void execute(Runnable task) {
+        this.tasks.add(task);
+        this.schedule();
+    }
+
+    /**
+     * @return The number of tasks that wait to run.
+     */
+    public int getNumOfWaitingTasks() {
+        return this.tasks.size();
+    }
+
+    /**
+     * Gives the mailbox to the executor, if it has tasks and isn't already there.
+     */
+    private void schedule() {
+        if (!this.tasks.isEmpty() && this.isScheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this::run);
+            } catch (RejectedExecutionException e) {
+                this.isScheduled.set(false);
+                TurnScheduler.getInstance().retryLater(this::schedule);
+            }
+        }
+    }
+
+    /**
+     * Runs the waiting tasks with the battle resolver of the game, and gives the mailbox back to the executor if more tasks are left.
+     */
+    private void run() {
+        BattleResolver previousResolver = BattleResolver.bind(this.resolver);
+        try {
+            for (int i = 0; i < GameMailbox.MAX_TASKS_PER_RUN; i++) {
+                Runnable task = this.tasks.poll();
+                if (task == null) break;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // A failing message shouldn't stop the game.
+                }
+            }
+        } finally {
+            BattleResolver.bind(previousResolver);
+        }
+
+        this.isScheduled.set(false);
+        this.schedule(); // Tasks that were sent while running (or that were left) are run in a new turn of the executor.
+    }
+}
@@ -1,93 +1,240 @@
 import org.json.JSONArray;
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import org.json.JSONException;
 
 import javax.websocket.Session;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GameManager {
-    private static final String MAP_FILENAME = "/Users/tuvia/IdeaProjects/Risk/src/countries.json"; // The path to the map json file.
+    /**
+     * The stages in the life of a game.
+     */
+    public enum Status {
+        LOBBY, // Waiting for players to join.
+        RUNNING, // Being played.
+        FINISHED, // A player conquered the whole map.
+        ABANDONED // All the human players left, or they were idle for too long.
+    }
+
+    public static final int NO_VERSION = -1; // The version of the game state of players that don't have any version, who are sent a full snapshot.
+
+    private static final String MAP_RESOURCE = "/countries.json"; // The path of the classic map json file on the classpath.
+    private static final String MAP_FILE_PROPERTY = "risk.map"; // The system property with the path of a map file to play on instead of the classic map (.json or .rmap).
+    private static final String SEED_PROPERTY = "risk.seed"; // The system property with the seed of the games, to reproduce a game (every game prints its seed).
     private static final int NUM_OF_HUMAN_PLAYERS = 2; // The number of human players in a game.
     private static final int NUM_OF_AI_PLAYERS = 2; // The number of AI players in a game.
-    private static final Map<String, Integer> CONTINENT_BONUSES = new HashMap<String, Integer>() {{
-        put("Africa", 3);
-        put("Asia", 7);
-        put("Europe", 5);
-        put("North America", 5);
-        put("Oceania", 2);
-        put("South America", 2);
-    }}; // A map with the troop bonuses for every continent, by its name.
+    private static final String MCTS_PLAYERS_PROPERTY = "risk.mctsPlayers"; // The system property with the number of the AI players that plan with tree search.
+    private static final int NUM_OF_MCTS_AI_PLAYERS = Math.max(0, Math.min(GameManager.NUM_OF_AI_PLAYERS, Integer.getInteger(GameManager.MCTS_PLAYERS_PROPERTY, 0))); // The number of the AI players that plan with tree search (MCTSPlayer) instead of the fixed strategy.
+    private static final MapTopology MAP = GameManager.loadMap(); // The topology of the map, loaded once and shared by all the games.
+    private static final int MAX_KEPT_VERSIONS = 16; // The number of sent versions of the game state that are kept, to send changes from. Players with older versions get a snapshot.
 
-    private static int gameIdCounter = 0; // The counter of the game ids.
+    private static final AtomicInteger gameIdCounter = new AtomicInteger(); // The counter of the game ids.
 
     private int gameId; // The id of the game.
+    private GameMailbox mailbox; // The mailbox that runs all the work of the game, one task at a time.
+    private volatile Status status; // The stage of the game. Changed in the mailbox, and read by the registry from other threads.
+    private volatile long lastActivityTime; // The last time (in System.currentTimeMillis) a human player joined or moved.
     private int currentPlayerId; // The id of the player that is currently playing his turn.
+    private int turnCount; // The number of turns that were started in the game.
+    private int newTroops; // The number of new troops the current player got in this turn.
     private List<Player> players; // A list of the players in the game.
     private List<String> playerColors = Arrays.asList("rgb(58,118,207)", "rgb(100,61,166)", "rgb(134,30,22)", "rgb(222,65,118)", "rgb(28,138,101)", "rgb(90,90,90)"); // A list with the optional colors for players.
     private Country[] countries; // An array of the countries on the game map. The index is the country id.
-    private Map<String, Continent> continents; // A map of the continents. Continent names are keys, continent objects are values.
+    private Map<String, Continent> continents; // A map of the continents, in the order of their indexes in the topology. Continent names are keys, continent objects are values.
+    private MapTopology topology; // The compact topology of the map, shared by all the games and used by game states.
+    private int stateVersion; // The sequence number of the last version of the game state that was sent to the players.
+    private Map<Integer, GameState> sentStates; // The last versions of the game state that were sent to the players, by their sequence numbers.
+    private TurnEncoder encoder; // The encoder of the messages with the game state.
+    private long seed; // The seed of the game, that all its random choices come from.
+    private Random random; // The random generator of the deal of the game.
+    private BattleResolver resolver; // The resolver of the battles of the game, bound to the thread that runs the mailbox of the game.
 
     /**
-     * A function that reads the map json file.
-     * @return A json array that was in the map json file.
+     * A function that reads the map file and creates its topology. The file is the one in the MAP_FILE_PROPERTY system property
+     * (in the format of its extension), or the classic map json file on the classpath.
+     * @return The topology of the map.
      */
-    private static JSONArray readMapFile() {
+    private static MapTopology loadMap() {
+        String mapFile = System.getProperty(GameManager.MAP_FILE_PROPERTY);
         try {
-            InputStream inputStream = new FileInputStream(new File(GameManager.MAP_FILENAME));
-            return new JSONArray(new JSONTokener(inputStream));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return null;
+            if (mapFile != null) {
+                MapTopology topology = MapFormat.forFileName(mapFile).read(Paths.get(mapFile));
+                System.out.println("Loaded the map " + mapFile + " with " + topology.getNumOfCountries() + " countries");
+                return topology;
+            }
+
+            try (InputStream inputStream = GameManager.class.getResourceAsStream(GameManager.MAP_RESOURCE)) {
+                if (inputStream == null) throw new IllegalStateException("The map " + GameManager.MAP_RESOURCE + " isn't on the classpath");
+                return new JsonMapFormat().read(inputStream);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
     /**
-     * Creates the countries array from the map json file. Creates new Country objects.
+     * Creates the countries array of the game from the topology of the map. Creates new Country objects, which share the topology.
+     * @param topology The topology of the map.
+     * @param continents The continents of the game, by their indexes in the topology.
      * @return The countries array.
      */
-    private Country[] createCountryArray() {
-        JSONArray map = readMapFile();
-        Country[] countries = new Country[map.length()];
-        for (int i = 0; i < countries.length; i++) {
-            JSONObject obj = map.getJSONObject(i);
-            List<Integer> neighbors = new ArrayList<>();
-            for (Object n: obj.getJSONArray("neighbors"))
-                neighbors.add((Integer) n);
-
-            Continent continent = this.continents.get(obj.getString("continent"));
-            countries[i] = new Country(i, obj.getString("name"), continent, neighbors);
-            continent.addCountry(countries[i]);
+    private static Country[] createCountryArray(MapTopology topology, Continent[] continents) {
+        Country[] countries = new Country[topology.getNumOfCountries()];
+        for (int countryId = 0; countryId < countries.length; countryId++) {
+            Continent continent = continents[topology.getContinent(countryId)];
+            countries[countryId] = new Country(topology, countryId, continent);
+            continent.addCountry(countries[countryId]);
         }
 
+        for (Country country : countries)
+            country.linkNeighbors(countries);
+        for (Continent continent : continents)
+            continent.initTopology();
+
         return countries;
     }
 
     /**
-     * Creates the continents map. Creates new Continent objects.
-     * @return The continents map, with names as continent keys and continent objects as values.
+     * Creates the continents of the game from the topology of the map. Creates new Continent objects.
+     * @param topology The topology of the map.
+     * @return An array of the continents, by their indexes in the topology.
      */
-    private Map<String, Continent> createContinentsMap() {
-        Map<String, Continent> continents = new HashMap<>();
-        for (String continentName : GameManager.CONTINENT_BONUSES.keySet())
-            continents.put(continentName, new Continent(continentName, GameManager.CONTINENT_BONUSES.get(continentName)));
-
+    private static Continent[] createContinentArray(MapTopology topology) {
+        Continent[] continents = new Continent[topology.getNumOfContinents()];
+        for (int continent = 0; continent < continents.length; continent++)
+            continents[continent] = new Continent(topology.getContinentName(continent), topology.getContinentBonus(continent));
         return continents;
     }
 
     /**
-     * A constructor that initializes a new game.
+     * @return The seed of the games of the server if it was set, or else a random seed.
+     */
+    private static long createSeed() {
+        Long seed = Long.getLong(GameManager.SEED_PROPERTY);
+        return seed != null ? seed : ThreadLocalRandom.current().nextLong();
+    }
+
+    /**
+     * A constructor that initializes a new game on the map of the server.
      */
     public GameManager() {
-        this.gameId = GameManager.gameIdCounter++;
+        this(GameManager.MAP);
+    }
+
+    /**
+     * A constructor that initializes a new game on a given map.
+     * @param topology The topology of the map.
+     */
+    public GameManager(MapTopology topology) {
+        this(topology, GameManager.createSeed());
+    }
+
+    /**
+     * A constructor that initializes a new game on a given map, with a seed for all its random choices (used by the scaling benchmark to play
+     * reproducible games on generated maps). Games with the same seed and the same moves of the human players are the same.
+     * @param topology The topology of the map.
+     * @param seed The seed of the game.
+     */
+    public GameManager(MapTopology topology, long seed) {
+        this.gameId = GameManager.gameIdCounter.getAndIncrement();
+        this.seed = seed;
+        SplittableRandom seedRandom = new SplittableRandom(seed);
+        this.random = new Random(seedRandom.nextLong());
+        this.resolver = new BattleResolver(seedRandom.split());
+        this.mailbox = new GameMailbox(TurnScheduler.getInstance().getGameExecutor(), this.resolver);
+        this.status = Status.LOBBY;
+        this.lastActivityTime = System.currentTimeMillis();
         this.currentPlayerId = -1;
         this.players = new ArrayList<>();
-        Collections.shuffle(this.playerColors);
-        this.continents = createContinentsMap();
-        this.countries = createCountryArray();
+        Collections.shuffle(this.playerColors, this.random);
+        Continent[] continents = createContinentArray(topology);
+        this.continents = new LinkedHashMap<>();
+        for (Continent continent : continents)
+            this.continents.put(continent.getName(), continent);
+        this.countries = createCountryArray(topology, continents);
+        this.topology = topology;
+        this.stateVersion = GameManager.NO_VERSION;
+        this.encoder = new TurnEncoder(this.gameId, this.players);
+        this.sentStates = new LinkedHashMap<Integer, GameState>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, GameState> eldest) {
+                return this.size() > GameManager.MAX_KEPT_VERSIONS;
+            }
+        };
+    }
+
+    public int getGameId() {
+        return this.gameId;
+    }
+
+    /**
+     * @return The seed of the game, to reproduce it with the risk.seed system property.
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * @return The resolver of the battles of the game.
+     */
+    public BattleResolver getResolver() {
+        return this.resolver;
+    }
+
+    /**
+     * @return The mailbox of the game. Everything that reads or changes the game should run in it.
+     */
+    public GameMailbox getMailbox() {
+        return this.mailbox;
+    }
+
+    public Status getStatus() {
+        return this.status;
+    }
+
+    /**
+     * @return Whether the game has started (no more players can join).
+     */
+    public boolean isStarted() {
+        return this.status != Status.LOBBY;
+    }
+
+    public boolean isRunning() {
+        return this.status == Status.RUNNING;
+    }
+
+    /**
+     * @return The number of milliseconds since a human player joined or moved.
+     */
+    public long getIdleMillis() {
+        return System.currentTimeMillis() - this.lastActivityTime;
+    }
+
+    /**
+     * @return The number of human players that are still connected.
+     */
+    private int getNumOfConnectedHumans() {
+        int numOfConnectedHumans = 0;
+        for (Player player : this.players)
+            if (player instanceof HumanPlayer && ((HumanPlayer) player).isConnected())
+                numOfConnectedHumans++;
+        return numOfConnectedHumans;
+    }
+
+    /**
+     * @return The number of players that didn't lose yet.
+     */
+    private int getNumOfPlayersLeft() {
+        int numOfPlayersLeft = 0;
+        for (Player player : this.players)
+            if (!player.hasLost()) numOfPlayersLeft++;
+        return numOfPlayersLeft;
     }
 
     public List<Continent> getContinents() {
@@ -98,28 +245,131 @@ public class GameManager {
         return this.countries;
     }
 
+    public List<Player> getPlayers() {
+        return Collections.unmodifiableList(this.players);
+    }
+
+    public MapTopology getTopology() {
+        return this.topology;
+    }
+
+    /**
+     * @return A compact snapshot of the current state of the game, at the beginning of the current turn.
+     */
+    public GameState captureState() {
+        return GameState.capture(this.topology, this.countries, this.players, this.turnCount, GameState.DRAFT_PHASE, this.currentPlayerId);
+    }
+
+    /**
+     * @param socket A socket.
+     * @return The human player that uses the socket, or null if there isn't one.
+     */
+    private HumanPlayer getHumanPlayer(Session socket) {
+        for (Player player : this.players)
+            if (player instanceof HumanPlayer && ((HumanPlayer) player).getSocket() == socket)
+                return (HumanPlayer) player;
+        return null;
+    }
+
     /**
      * Adds a player to the game.
      * Gives the player a random color, creates a new player object and adds it to the list.
      * @param name The name of the player.
      * @param socket The socket to communicate with the player.
+     * @param usesBinaryFrames Whether the player asked for the game state in binary frames.
+     */
+    public void addHumanPlayer(String name, Session socket, boolean usesBinaryFrames) {
+        this.players.add(new HumanPlayer(name, this.playerColors.get(this.players.size()), socket, usesBinaryFrames));
+        this.lastActivityTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Handles a human player that disconnected. In the lobby the player leaves the game. In a running game the turns of the player are skipped,
+     * and when no human players are left the game is abandoned.
+     * @param socket The socket of the player.
+     */
+    public void removeHumanPlayer(Session socket) {
+        HumanPlayer player = this.getHumanPlayer(socket);
+        if (player == null) return;
+
+        player.disconnect();
+        if (this.status == Status.LOBBY) this.players.remove(player);
+        else if (this.status == Status.RUNNING && this.getNumOfConnectedHumans() == 0) this.end(Status.ABANDONED);
+        else if (this.status == Status.RUNNING && this.players.get(this.currentPlayerId) == player) this.finishTurn();
+    }
+
+    /**
+     * Saves the version of the game state a player has, so the next messages to the player only have the changes since it.
+     * Versions that weren't sent yet, and versions older than the one the player already acknowledged, are ignored.
+     * @param socket The socket of the player.
+     * @param version The sequence number of the version.
+     */
+    public void acknowledgeState(Session socket, int version) {
+        HumanPlayer player = this.getHumanPlayer(socket);
+        if (player != null && version <= this.stateVersion && version > player.getAcknowledgedVersion())
+            player.setAcknowledgedVersion(version);
+    }
+
+    /**
+     * Sends a full snapshot of the last version of the game state to a player, whose version doesn't match the changes it was sent.
+     * @param socket The socket of the player.
      */
-    public void addHumanPlayer(String name, Session socket) {
-        this.players.add(new HumanPlayer(name, this.playerColors.get(this.players.size()), socket));
+    public void resyncPlayer(Session socket) {
+        HumanPlayer player = this.getHumanPlayer(socket);
+        if (player == null || this.status != Status.RUNNING) return;
+
+        player.setAcknowledgedVersion(GameManager.NO_VERSION);
+        this.sendState(player, new HashMap<>(), new HashMap<>());
+    }
+
+    /**
+     * Ends the game, removes it from the registry and releases its memory.
+     * Work of the game that is still scheduled does nothing after this.
+     * @param endStatus The reason the game ended (FINISHED or ABANDONED).
+     */
+    public void end(Status endStatus) {
+        if (this.status == Status.FINISHED || this.status == Status.ABANDONED) return;
+        this.status = endStatus;
+        GameRegistry.getInstance().evict(this);
+
+        for (Player player : this.players)
+            if (player instanceof HumanPlayer) ((HumanPlayer) player).leaveGame(); // The final state that was just sent still reaches the player.
+        this.players.clear();
+        this.countries = new Country[0];
+        this.continents.clear();
+        this.topology = null;
+        this.sentStates.clear();
     }
 
     /**
-     * Update the players and countries with the new state of the game.
-     * Clears the countries from every player and gives him the countries he controls in the new state.
-     * @param turnObj The json object with the new state.
+     * Applies the actions a human player made in his turn to the countries, one by one (see HumanTurn).
+     * If an action is invalid (or malformed) it and the actions after it are dropped, and the player is sent a snapshot in the next turn,
+     * since the browser already showed them. The turn is still played, so a broken message can't hold the game.
+     * @param socket The socket of the player.
+     * @param actions The json array of the actions.
+     * @return Whether the turn was played - the player is in the game and it is his turn.
      */
-    public void updateGame(JSONObject turnObj) {
-        for (Player player : this.players) {
-            player.clearCountries();
-            JSONObject playerCountriesObj = turnObj.getJSONObject("players").getJSONObject(player.getName()).getJSONObject("countries");
-            for (String countryId : playerCountriesObj.keySet())
-                player.addCountry(this.countries[Integer.parseInt(countryId)], playerCountriesObj.getInt(countryId));
+    public boolean playHumanTurn(Session socket, JSONArray actions) {
+        HumanPlayer player = this.getHumanPlayer(socket);
+        if (player == null || this.status != Status.RUNNING || this.players.get(this.currentPlayerId) != player) return false;
+
+        this.lastActivityTime = System.currentTimeMillis();
+        HumanTurn turn = new HumanTurn(this.countries, player, this.newTroops);
+        for (int i = 0; i < actions.length(); i++) {
+            boolean isValid;
+            try {
+                isValid = turn.apply(actions.getJSONArray(i));
+            } catch (JSONException e) { // The action isn't an array of numbers.
+                isValid = false;
+            }
+
+            if (!isValid) {
+                System.out.println("Invalid action of " + player.getName() + ": " + actions.opt(i));
+                player.setAcknowledgedVersion(GameManager.NO_VERSION);
+                break;
+            }
         }
+        return true;
     }
 
     /**
@@ -130,62 +380,111 @@ public class GameManager {
     }
 
     /**
-     * Adds AI players to start the game.
+     * Starts the game - adds the AI players, deals the countries and starts the first turn.
+     * Prints the seed of the game, so it can be reproduced.
+     */
+    public void start() {
+        System.out.println("Started game " + this.gameId + " with seed " + this.seed);
+        this.status = Status.RUNNING;
+        this.addAIPlayers();
+        this.dealCountries();
+        this.finishTurn();
+    }
+
+    /**
+     * Adds AI players to start the game. The number of them that plan with tree search is in the MCTS_PLAYERS_PROPERTY system property (0 by default).
      */
     public void addAIPlayers() {
+        this.addAIPlayers(GameManager.NUM_OF_MCTS_AI_PLAYERS);
+    }
+
+    /**
+     * Adds AI players to start the game (used by the scaling benchmark to measure the players that plan with tree search).
+     * @param numOfMCTSPlayers The number of the AI players that plan with tree search. The last AI players are the ones that do.
+     */
+    public void addAIPlayers(int numOfMCTSPlayers) {
         for (int i = 0; i < GameManager.NUM_OF_AI_PLAYERS; i++)
-            this.players.add(new AIPlayer(i + 1, this.playerColors.get(this.players.size()), this));
+            if (i < GameManager.NUM_OF_AI_PLAYERS - numOfMCTSPlayers)
+                this.players.add(new AIPlayer(i + 1, this.playerColors.get(this.players.size()), this));
+            else
+                this.players.add(new MCTSPlayer(i + 1, this.playerColors.get(this.players.size()), this));
     }
 
     /**
      * Deals the countries randomly between the players and gives them the number of initial troops they have at the beginning of the game (depends on number of players).
+     * On big maps every player gets at least 2 troops for every country he gets.
      */
     public void dealCountries() {
-        int initialTroops = 50 - (GameManager.NUM_OF_HUMAN_PLAYERS + GameManager.NUM_OF_AI_PLAYERS) * 5;
+        int initialTroops = Math.max(50 - (GameManager.NUM_OF_HUMAN_PLAYERS + GameManager.NUM_OF_AI_PLAYERS) * 5,
+                (this.countries.length + this.players.size() - 1) / this.players.size() * 2);
         List<Country> countriesToDeal = new ArrayList<>(Arrays.asList(this.countries));
-        Collections.shuffle(countriesToDeal);
+        Collections.shuffle(countriesToDeal, this.random);
         for (int i = 0; i < this.players.size(); i++) {
             List<Country> playerInitialCountries = countriesToDeal.subList((i * countriesToDeal.size()) / this.players.size(), ((i + 1) * countriesToDeal.size()) / this.players.size());
-            this.players.get(i).setInitialCountries(playerInitialCountries, initialTroops);
+            this.players.get(i).setInitialCountries(playerInitialCountries, initialTroops, this.random);
         }
     }
 
     /**
-     * Creates a json object with the state of the game, in order to send to the players.
-     * @return A string with the json object.
+     * Passes the turn to the next player that didn't lose, and saves the state of the game at the beginning of the turn as a new version.
      */
-    private String createTurnJSON() {
+    private void advanceTurn() {
         do
             this.currentPlayerId = (this.currentPlayerId + 1) % (GameManager.NUM_OF_HUMAN_PLAYERS + GameManager.NUM_OF_AI_PLAYERS);
         while (this.players.get(this.currentPlayerId).hasLost());
+        this.turnCount++;
+        this.newTroops = this.players.get(this.currentPlayerId).getNumberOfNewTroops(this.continents.values());
 
-        JSONObject turnObj = new JSONObject();
-        turnObj.put("gameId", this.gameId);
-
-        JSONObject playersObj = new JSONObject();
-        for (Player player : this.players) {
-            playersObj.put(player.getName(), player.getJSONObject());
-        }
+        this.stateVersion++;
+        this.sentStates.put(this.stateVersion, this.captureState());
+    }
 
-        turnObj.put("players", playersObj);
-        Player currentPlayer = this.players.get(this.currentPlayerId);
-        turnObj.put("currentPlayer", currentPlayer.getName());
-        turnObj.put("newTroops", currentPlayer.getNumberOfNewTroops(this.continents.values()));
+    /**
+     * Sends the last version of the game state to a player, as a json message or a binary frame (see TurnEncoder).
+     * Players who asked for binary frames get json messages when the game doesn't fit in a binary frame.
+     * It only has the countries whose owner or number of troops changed since the version the player acknowledged.
+     * If that version isn't kept, it has all the countries (a snapshot, with baseSeq NO_VERSION).
+     * @param player The player.
+     * @param messagesByBaseVersion The json messages that were already encoded for other players, by their base versions.
+     * @param framesByBaseVersion The binary frames that were already encoded for other players, by their base versions.
+     */
+    private void sendState(HumanPlayer player, Map<Integer, String> messagesByBaseVersion, Map<Integer, ByteBuffer> framesByBaseVersion) {
+        int baseVersion = player.getAcknowledgedVersion();
+        if (!this.sentStates.containsKey(baseVersion)) baseVersion = GameManager.NO_VERSION;
 
-        return turnObj.toString();
+        GameState state = this.sentStates.get(this.stateVersion), baseState = this.sentStates.get(baseVersion);
+        if (player.usesBinaryFrames() && this.encoder.canEncodeBinary(state))
+            player.send(framesByBaseVersion.computeIfAbsent(baseVersion, version -> this.encoder.encodeBinary(state, this.stateVersion, baseState, version, this.newTroops)));
+        else
+            player.send(messagesByBaseVersion.computeIfAbsent(baseVersion, version -> this.encoder.encodeText(state, this.stateVersion, baseState, version, this.newTroops)));
     }
 
     /**
-     * Sends the current state of the game to all the players.
+     * Starts the next turn and sends the new version of the game state to all the players.
+     * Every player gets the changes since the version he acknowledged, and players who share a version and format share the message.
+     * The messages are sent asynchronously (see SessionOutbox), so a slow player doesn't hold the game.
+     * If the next player is an AI, its turn is scheduled on the TurnScheduler, so this returns without waiting for it.
+     * If the next player is a human that disconnected, its turn is skipped. If only one player is left, the game is finished.
      */
     public void finishTurn() {
-        String turnJSON = this.createTurnJSON();
+        if (this.status != Status.RUNNING) return; // The game ended while the turn was scheduled.
+
+        this.advanceTurn();
+        Map<Integer, String> messagesByBaseVersion = new HashMap<>();
+        Map<Integer, ByteBuffer> framesByBaseVersion = new HashMap<>();
         for (Player player : this.players)
             if (player instanceof HumanPlayer)
-                ((HumanPlayer) player).send(turnJSON);
+                this.sendState(((HumanPlayer) player), messagesByBaseVersion, framesByBaseVersion);
+
+        if (this.getNumOfPlayersLeft() <= 1) {
+            this.end(Status.FINISHED);
+            return;
+        }
 
         Player currentPlayer = this.players.get(this.currentPlayerId);
         if (currentPlayer instanceof AIPlayer)
-            ((AIPlayer) currentPlayer).doTurn();
+            TurnScheduler.getInstance().scheduleAITurn(this, (AIPlayer) currentPlayer);
+        else if (!((HumanPlayer) currentPlayer).isConnected())
+            this.mailbox.execute(this::finishTurn); // Skipped in a new task, so skipping many turns doesn't recurse.
     }
 }
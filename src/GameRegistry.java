@@ -0,0 +1,125 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe registry of the live games on the server, by their ids.
+ * It also keeps the lobby - the game that new players join, which is replaced when it starts and is only created when a player joins.
+ * Games are evicted when they end, and a sweeper ends games whose human players were idle for too long, so their memory is released.
+ * The registry is only a lookup, the games themselves are changed in their own mailboxes.
+ */
+public class GameRegistry {
+    private static final long SWEEP_INTERVAL_MILLIS = 60 * 1000; // The number of milliseconds between checks for idle games.
+    private static final long GAME_IDLE_TIMEOUT_MILLIS = 30 * 60 * 1000; // The number of milliseconds without human moves after which a running game is abandoned.
+    private static final long LOBBY_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000; // The number of milliseconds after which an empty lobby is released.
+
+    private static final GameRegistry INSTANCE = new GameRegistry(); // The registry of the server.
+
+    private final Map<Integer, GameManager> games = new ConcurrentHashMap<>(); // The live games, by their ids.
+    private final AtomicReference<GameManager> lobby = new AtomicReference<>(); // The game that new players join (always a game that hasn't started), or null.
+    private final LongAdder numOfFinishedGames = new LongAdder(); // The number of games that were evicted because they finished.
+    private final LongAdder numOfAbandonedGames = new LongAdder(); // The number of games that were evicted because they were abandoned.
+
+    /**
+     * A constructor that starts the sweeper of idle games.
+     */
+    private GameRegistry() {
+        TurnScheduler.getInstance().scheduleRepeating(this::sweepIdleGames, GameRegistry.SWEEP_INTERVAL_MILLIS);
+    }
+
+    public static GameRegistry getInstance() {
+        return GameRegistry.INSTANCE;
+    }
+
+    /**
+     * @param gameId A game id.
+     * @return The live game with the id, or null if there isn't one (it never existed or it was evicted).
+     */
+    public GameManager getGame(int gameId) {
+        return this.games.get(gameId);
+    }
+
+    /**
+     * @return The lobby. A new one is created and registered if there isn't one.
+     */
+    public GameManager getLobby() {
+        GameManager currentLobby = this.lobby.get();
+        while (currentLobby == null) {
+            GameManager newLobby = new GameManager();
+            if (this.lobby.compareAndSet(null, newLobby)) {
+                this.games.put(newLobby.getGameId(), newLobby);
+                return newLobby;
+            }
+            currentLobby = this.lobby.get();
+        }
+        return currentLobby;
+    }
+
+    /**
+     * Stops using a game as the lobby, if it is still the lobby. Called when the lobby starts. The next player to join creates a new lobby.
+     * @param startingLobby The lobby that is starting.
+     */
+    public void replaceLobby(GameManager startingLobby) {
+        this.lobby.compareAndSet(startingLobby, null);
+    }
+
+    /**
+     * Removes a game that ended from the registry. Called by the game.
+     * @param game The game.
+     */
+    public void evict(GameManager game) {
+        this.lobby.compareAndSet(game, null);
+        if (this.games.remove(game.getGameId(), game)) {
+            if (game.getStatus() == GameManager.Status.FINISHED) this.numOfFinishedGames.increment();
+            else this.numOfAbandonedGames.increment();
+            System.out.println("Game " + game.getGameId() + " " + game.getStatus().name().toLowerCase() + ". " + this);
+        }
+    }
+
+    /**
+     * Abandons running games whose human players were idle for too long, and releases the lobby if it was empty for too long.
+     * The games are checked again in their mailboxes, since they might have changed since.
+     */
+    private void sweepIdleGames() {
+        for (GameManager game : this.games.values()) {
+            if (game.isRunning() && game.getIdleMillis() > GameRegistry.GAME_IDLE_TIMEOUT_MILLIS)
+                game.getMailbox().execute(() -> {
+                    if (game.isRunning() && game.getIdleMillis() > GameRegistry.GAME_IDLE_TIMEOUT_MILLIS)
+                        game.end(GameManager.Status.ABANDONED);
+                });
+            else if (!game.isStarted() && game.getIdleMillis() > GameRegistry.LOBBY_IDLE_TIMEOUT_MILLIS)
+                game.getMailbox().execute(() -> {
+                    if (!game.isStarted() && game.getPlayers().isEmpty() && game.getIdleMillis() > GameRegistry.LOBBY_IDLE_TIMEOUT_MILLIS)
+                        game.end(GameManager.Status.ABANDONED);
+                });
+        }
+    }
+
+    /**
+     * @return The number of live games (including the lobby).
+     */
+    public int getNumOfLiveGames() {
+        return this.games.size();
+    }
+
+    /**
+     * @return The number of games that were evicted since the server started.
+     */
+    public long getNumOfEvictedGames() {
+        return this.numOfFinishedGames.sum() + this.numOfAbandonedGames.sum();
+    }
+
+    public long getNumOfFinishedGames() {
+        return this.numOfFinishedGames.sum();
+    }
+
+    public long getNumOfAbandonedGames() {
+        return this.numOfAbandonedGames.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Games: " + this.getNumOfLiveGames() + " live, " + this.getNumOfFinishedGames() + " finished, " + this.getNumOfAbandonedGames() + " abandoned";
+    }
+}
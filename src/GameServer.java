@@ -1,60 +1,133 @@
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A class that handles the incoming communication from the server. Functions as the server endpoint.
  */
 @ServerEndpoint("/ws")
 public class GameServer {
+    private static final String GAME_ID_PROPERTY = "gameId"; // The user property of a session with the id of the game of the player.
 
-    private static List<GameManager> games = new ArrayList<GameManager>() {{
-        add(new GameManager());
-    }}; // A list of the games that are happening. The index of the list is the game id.
+    /**
+     * @param messageObj A json object with a game id.
+     * @return The game with the id of the message, or null if it doesn't exist (or was evicted).
+     */
+    private static GameManager getGameOfMessage(JSONObject messageObj) {
+        GameManager game = GameRegistry.getInstance().getGame(messageObj.getInt("gameId"));
+        if (game == null)
+            System.out.println("Message to a game that doesn't exist: " + messageObj.getInt("gameId"));
+        return game;
+    }
+
+    /**
+     * Finds the relevant game using the game id, and applies the actions of the turn of the player and starts the next turn in the mailbox of the game.
+     * Actions of players whose turn it isn't are ignored.
+     * @param messageObj The json object with the actions of the turn.
+     * @param session The socket of the player.
+     */
+    private static void playTurnOfExistingPlayer(JSONObject messageObj, Session session) {
+        GameManager game = getGameOfMessage(messageObj);
+        if (game == null) return;
+
+        JSONArray actions = messageObj.getJSONArray("actions");
+        game.getMailbox().execute(() -> {
+            if (game.playHumanTurn(session, actions)) game.finishTurn();
+        });
+    }
 
     /**
-     * Finds the relevant game using the game id, updates it with the new state and sends the new state to all the players.
-     * @param messageObj The json object with the new state of the game.
+     * Handles a message about the version of the game state a player has, in the mailbox of the game.
+     * It either acknowledges a version (the player applied it), or asks for a full snapshot (the player missed a version).
+     * @param messageObj The json object with the game id and either "ack" with the version, or "resync".
+     * @param session The socket of the player.
      */
-    private static void updateGameOfExistingPlayer(JSONObject messageObj) {
-        GameManager game = GameServer.games.get(messageObj.getInt("gameId"));
-        game.updateGame(messageObj);
-        game.finishTurn();
+    private static void syncStateOfExistingPlayer(JSONObject messageObj, Session session) {
+        GameManager game = getGameOfMessage(messageObj);
+        if (game == null) return;
+
+        if (messageObj.has("ack")) {
+            int version = messageObj.getInt("ack");
+            game.getMailbox().execute(() -> game.acknowledgeState(session, version));
+        } else
+            game.getMailbox().execute(() -> game.resyncPlayer(session));
     }
 
     /**
-     * Adds a new player to the last game (always a game that hasn't started).
-     * If there are enough players, it starts the game and creates a new one for future players.
+     * Removes the player of a session that was closed from its game, in the mailbox of the game.
+     * @param session The socket of the player.
+     */
+    private static void removePlayerOfSession(Session session) {
+        Object gameId = session.getUserProperties().remove(GameServer.GAME_ID_PROPERTY);
+        if (gameId == null) return;
+
+        GameManager game = GameRegistry.getInstance().getGame((Integer) gameId);
+        if (game != null)
+            game.getMailbox().execute(() -> game.removeHumanPlayer(session));
+    }
+
+    /**
+     * Adds a new player to the lobby (always a game that hasn't started), in the mailbox of the lobby.
+     * If there are enough players, it starts the game and replaces the lobby with a new game for future players.
      * @param session The socket of the new player.
      * @param name The name of the new player.
+     * @param usesBinaryFrames Whether the player asked for the game state in binary frames.
      */
-    private static void addNewPlayerToGame(Session session, String name) {
-        GameManager game = GameServer.games.get(GameServer.games.size() - 1);
-        game.addHumanPlayer(name, session);
-
-        if (game.readyToStart()) {
-            game.addAIPlayers();
-            game.dealCountries();
-            game.finishTurn();
+    private static void addNewPlayerToGame(Session session, String name, boolean usesBinaryFrames) {
+        GameManager game = GameRegistry.getInstance().getLobby();
+        game.getMailbox().execute(() -> {
+            if (!session.isOpen()) return; // The player left before joining.
+            if (game.isStarted()) { // Other players filled the game after it was read as the lobby, so join the new lobby.
+                addNewPlayerToGame(session, name, usesBinaryFrames);
+                return;
+            }
 
-            GameServer.games.add(new GameManager());
-        }
+            game.addHumanPlayer(name, session, usesBinaryFrames);
+            session.getUserProperties().put(GameServer.GAME_ID_PROPERTY, game.getGameId());
+            if (game.readyToStart()) {
+                GameRegistry.getInstance().replaceLobby(game);
+                game.start();
+            }
+        });
     }
 
     /**
      * Implements the OnMessage function - listens to new messages to the server.
-     * It updates the game of an existing player or adds a new player to a game.
+     * It acknowledges or resyncs the state of an existing player, plays the turn of an existing player or adds a new player to a game. The work is done in the mailbox of the game,
+     * so the thread of the container returns immediately.
      * @param message The message received from the player.
      * @param session The socket used to communicate with the player.
      */
     @OnMessage
     public static void onMessage(String message, Session session) {
         JSONObject messageObj = new JSONObject(message);
-        if (messageObj.has("gameId")) updateGameOfExistingPlayer(messageObj);
-        else addNewPlayerToGame(session, messageObj.getString("username"));
+        if (messageObj.has("ack") || messageObj.has("resync")) syncStateOfExistingPlayer(messageObj, session);
+        else if (messageObj.has("actions")) playTurnOfExistingPlayer(messageObj, session);
+        else addNewPlayerToGame(session, messageObj.getString("username"), messageObj.optBoolean("binary", false));
+    }
+
+    /**
+     * Implements the OnClose function - the player of the session leaves its game.
+     * @param session The socket that was closed.
+     */
+    @OnClose
+    public static void onClose(Session session) {
+        removePlayerOfSession(session);
+    }
+
+    /**
+     * Implements the OnError function - the session can't be used anymore, so the player leaves its game.
+     * @param session The socket that failed.
+     * @param error The error.
+     */
+    @OnError
+    public static void onError(Session session, Throwable error) {
+        System.out.println("Socket error: " + error);
+        removePlayerOfSession(session);
     }
 }
@@ -0,0 +1,231 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact, struct-of-arrays representation of the dynamic state of a game - the owner and troops of every country,
+ * a bit mask of the countries of every player and a word with the turn, phase and current player.
+ * It doesn't reference the live Country and Player objects, so it can be copied in O(n) with array copies
+ * and used for AI search, simulations and persistence without touching the live game.
+ * Players are represented by their index in the players list of the game, and countries by their id.
+ */
+public class GameState {
+    public static final int NO_OWNER = -1; // The owner of countries that aren't controlled by any player.
+    public static final int DRAFT_PHASE = 0; // The phase of drafting new troops.
+    public static final int ATTACK_PHASE = 1; // The phase of attacking.
+    public static final int FORTIFY_PHASE = 2; // The phase of moving troops at the end of the turn.
+
+    private static final int PLAYER_BITS = 8; // The number of bits of the current player in the turn word.
+    private static final int PHASE_BITS = 2; // The number of bits of the phase in the turn word.
+
+    private final MapTopology topology; // The topology of the map, shared by all the states of the game.
+    private final int numOfPlayers; // The number of players in the game.
+    private final int maskWords; // The number of longs in the ownership mask of every player.
+    private final int[] owners; // The index of the owner of every country.
+    private final int[] troops; // The number of troops in every country.
+    private final long[] ownershipMasks; // The ownership masks of all the players, one after the other.
+    private int turnWord; // The turn number, phase and current player packed in an int.
+
+    /**
+     * A constructor that creates a state without owners and troops.
+     * @param topology The topology of the map.
+     * @param numOfPlayers The number of players in the game.
+     */
+    public GameState(MapTopology topology, int numOfPlayers) {
+        this.topology = topology;
+        this.numOfPlayers = numOfPlayers;
+        this.maskWords = MapTopology.getNumOfMaskWords(topology.getNumOfCountries());
+        this.owners = new int[topology.getNumOfCountries()];
+        this.troops = new int[topology.getNumOfCountries()];
+        this.ownershipMasks = new long[numOfPlayers * this.maskWords];
+        Arrays.fill(this.owners, GameState.NO_OWNER);
+    }
+
+    /**
+     * Creates a state from the live objects of a game.
+     * @param topology The topology of the map.
+     * @param countries The array of countries.
+     * @param players The list of players. Their order sets the player indexes.
+     * @param turn The turn number.
+     * @param phase The phase of the turn.
+     * @param currentPlayer The index of the current player.
+     * @return The state of the game.
+     */
+    public static GameState capture(MapTopology topology, Country[] countries, List<Player> players, int turn, int phase, int currentPlayer) {
+        GameState state = new GameState(topology, players.size());
+        for (Country country : countries)
+            if (country.getOwner() != null) {
+                state.setOwner(country.getId(), players.indexOf(country.getOwner()));
+                state.troops[country.getId()] = country.getNumOfTroops();
+            }
+        state.setTurn(turn, phase, currentPlayer);
+        return state;
+    }
+
+    /**
+     * Applies the state to the live objects of a game. Only countries that are different from the state are changed.
+     * @param countries The array of countries.
+     * @param players The list of players, in the same order as when the state was captured.
+     */
+    public void applyTo(Country[] countries, List<Player> players) {
+        for (Country country : countries) {
+            int countryId = country.getId(), owner = this.owners[countryId];
+            if (owner == GameState.NO_OWNER) continue;
+
+            Player newOwner = players.get(owner);
+            if (country.getOwner() != newOwner) {
+                if (country.getOwner() != null) country.getOwner().removeCountry(country);
+                newOwner.addCountry(country, this.troops[countryId]);
+            } else if (country.getNumOfTroops() != this.troops[countryId])
+                country.occupy(newOwner, this.troops[countryId]);
+        }
+    }
+
+    /**
+     * @return A copy of the state. The topology is shared.
+     */
+    public GameState copy() {
+        GameState copy = new GameState(this.topology, this.numOfPlayers);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Copies another state of the same game into this one, without allocating.
+     * @param other The state to copy.
+     */
+    public void copyFrom(GameState other) {
+        System.arraycopy(other.owners, 0, this.owners, 0, this.owners.length);
+        System.arraycopy(other.troops, 0, this.troops, 0, this.troops.length);
+        System.arraycopy(other.ownershipMasks, 0, this.ownershipMasks, 0, this.ownershipMasks.length);
+        this.turnWord = other.turnWord;
+    }
+
+    public MapTopology getTopology() {
+        return this.topology;
+    }
+
+    public int getNumOfPlayers() {
+        return this.numOfPlayers;
+    }
+
+    public int getOwner(int countryId) {
+        return this.owners[countryId];
+    }
+
+    public int getTroops(int countryId) {
+        return this.troops[countryId];
+    }
+
+    /**
+     * Changes the owner of a country and updates the ownership masks.
+     * @param countryId The id of the country.
+     * @param owner The index of the new owner, or NO_OWNER.
+     */
+    public void setOwner(int countryId, int owner) {
+        int oldOwner = this.owners[countryId], word = countryId >>> 6;
+        long bit = 1L << countryId;
+        if (oldOwner != GameState.NO_OWNER) this.ownershipMasks[oldOwner * this.maskWords + word] &= ~bit;
+        if (owner != GameState.NO_OWNER) this.ownershipMasks[owner * this.maskWords + word] |= bit;
+        this.owners[countryId] = owner;
+    }
+
+    public void setTroops(int countryId, int numOfTroops) {
+        this.troops[countryId] = numOfTroops;
+    }
+
+    public void addTroops(int countryId, int troopsToAdd) {
+        this.troops[countryId] += troopsToAdd;
+    }
+
+    /**
+     * @param other Another state of the same map.
+     * @param countryId A country id.
+     * @return Whether the owner or the number of troops of the country are different in the other state.
+     */
+    public boolean isCountryChanged(GameState other, int countryId) {
+        return this.owners[countryId] != other.owners[countryId] || this.troops[countryId] != other.troops[countryId];
+    }
+
+    /**
+     * @param player A player index.
+     * @param countryId A country id.
+     * @return Whether the player controls the country. Read from the ownership mask.
+     */
+    public boolean owns(int player, int countryId) {
+        return (this.ownershipMasks[player * this.maskWords + (countryId >>> 6)] & (1L << countryId)) != 0;
+    }
+
+    /**
+     * @param player A player index.
+     * @return The number of countries the player controls.
+     */
+    public int getNumOfCountries(int player) {
+        int numOfCountries = 0;
+        for (int word = 0; word < this.maskWords; word++)
+            numOfCountries += Long.bitCount(this.ownershipMasks[player * this.maskWords + word]);
+        return numOfCountries;
+    }
+
+    /**
+     * @param player A player index.
+     * @param continent A continent index.
+     * @return Whether the player controls all the countries of the continent.
+     */
+    public boolean ownsContinent(int player, int continent) {
+        long[] continentMask = this.topology.getContinentMask(continent);
+        for (int word = 0; word < this.maskWords; word++)
+            if ((this.ownershipMasks[player * this.maskWords + word] & continentMask[word]) != continentMask[word])
+                return false;
+        return true;
+    }
+
+    /**
+     * Calculates the number of troops the player should receive in a turn, like Player.getNumberOfNewTroops.
+     * @param player A player index.
+     * @return The number of new troops.
+     */
+    public int getNumberOfNewTroops(int player) {
+        int continentBonuses = 0;
+        for (int continent = 0; continent < this.topology.getNumOfContinents(); continent++)
+            if (this.ownsContinent(player, continent))
+                continentBonuses += this.topology.getContinentBonus(continent);
+        return Math.max(this.getNumOfCountries(player) / 3 + continentBonuses, 3);
+    }
+
+    /**
+     * @param player A player index.
+     * @return Whether the player doesn't control any countries.
+     */
+    public boolean hasLost(int player) {
+        for (int word = 0; word < this.maskWords; word++)
+            if (this.ownershipMasks[player * this.maskWords + word] != 0) return false;
+        return true;
+    }
+
+    /**
+     * Sets the turn word. The current player is masked to its bits, so a game that didn't start yet (without a current player)
+     * doesn't spill into the turn and phase.
+     * @param turn The turn number.
+     * @param phase The phase of the turn.
+     * @param currentPlayer The index of the current player.
+     */
+    public void setTurn(int turn, int phase, int currentPlayer) {
+        this.turnWord = (turn << (GameState.PLAYER_BITS + GameState.PHASE_BITS)) | (phase << GameState.PLAYER_BITS) | (currentPlayer & ((1 << GameState.PLAYER_BITS) - 1));
+    }
+
+    public int getTurnWord() {
+        return this.turnWord;
+    }
+
+    public int getTurn() {
+        return this.turnWord >>> (GameState.PLAYER_BITS + GameState.PHASE_BITS);
+    }
+
+    public int getPhase() {
+        return (this.turnWord >>> GameState.PLAYER_BITS) & ((1 << GameState.PHASE_BITS) - 1);
+    }
+
+    public int getCurrentPlayer() {
+        return this.turnWord & ((1 << GameState.PLAYER_BITS) - 1);
+    }
+}
@@ -1,29 +1,89 @@
 import javax.websocket.Session;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * A class representing a human player.
  */
 public class HumanPlayer extends Player {
     private Session socket; // The socket used to communicate with the player.
+    private SessionOutbox outbox; // The queue of the messages that are sent to the player asynchronously on the socket.
+    private int acknowledgedVersion; // The last version of the game state the player acknowledged, or GameManager.NO_VERSION.
+    private boolean usesBinaryFrames; // Whether the browser of the player asked for the game state in binary frames instead of json.
 
     /**
      * A constructor that sets object variables.
      */
-    public HumanPlayer(String name, String color, Session socket) {
+    public HumanPlayer(String name, String color, Session socket, boolean usesBinaryFrames) {
         super(name, color);
         this.socket = socket;
+        this.outbox = new SessionOutbox(socket);
+        this.acknowledgedVersion = GameManager.NO_VERSION;
+        this.usesBinaryFrames = usesBinaryFrames;
+    }
+
+    public Session getSocket() {
+        return this.socket;
+    }
+
+    public boolean usesBinaryFrames() {
+        return this.usesBinaryFrames;
+    }
+
+    public int getAcknowledgedVersion() {
+        return this.acknowledgedVersion;
+    }
+
+    public void setAcknowledgedVersion(int acknowledgedVersion) {
+        this.acknowledgedVersion = acknowledgedVersion;
+    }
+
+    /**
+     * @return Whether the socket of the player is still open.
+     */
+    public boolean isConnected() {
+        return this.socket != null && this.socket.isOpen();
+    }
+
+    /**
+     * Forgets the socket of the player, after it was closed. Messages that weren't sent yet are dropped.
+     */
+    public void disconnect() {
+        if (this.socket == null) return;
+        this.socket = null;
+        this.outbox.close();
+        System.out.println(this.getName() + " disconnected. " + this.outbox);
     }
 
     /**
-     * Sends the message to the player using his socket.
-     * @param message The message to send.
+     * Forgets the socket of the player, after the game ended. The messages that weren't sent yet (the final state of the game)
+     * are still sent, even to a slow player, and then the outbox is closed.
+     */
+    public void leaveGame() {
+        if (this.socket == null) return;
+        this.socket = null;
+        this.outbox.closeAfterFlush();
+        System.out.println(this.getName() + " left the game. " + this.outbox);
+    }
+
+    public SessionOutbox getOutbox() {
+        return this.outbox;
+    }
+
+    /**
+     * Sends the message to the player asynchronously, using the outbox of his socket. Does nothing if the player disconnected.
+     * @param message The message to send. The same string can be sent to many players.
      */
     public void send(String message) {
-        try {
-            this.socket.getBasicRemote().sendText(message);
-        } catch (IOException e) {
-            System.out.println(e.toString());
-        }
+        if (!this.isConnected()) return;
+        this.outbox.send(message);
+    }
+
+    /**
+     * Sends the binary frame to the player asynchronously, using the outbox of his socket. Does nothing if the player disconnected.
+     * @param frame The frame to send. The same frame can be sent to many players, since it isn't changed.
+     */
+    public void send(ByteBuffer frame) {
+        if (!this.isConnected()) return;
+        this.outbox.send(frame);
     }
 }
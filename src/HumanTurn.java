@@ -0,0 +1,160 @@
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+
+/**
+ * A class that validates the actions of a human player in his turn, and applies them to the countries one by one.
+ * Every action is a json array that starts with its kind:
+ * DRAFT [kind, country, troops], ATTACK [kind, from, to, remaining attackers, remaining defenders, troops to move] and FORTIFY [kind, from, to, troops].
+ * The dice of the attacks are rolled by the browser, so only the result is checked - it has to be a possible end of a battle.
+ * The actions have to come in the order of the stages of a turn (drafts, then attacks, then one fortify), and every action is checked
+ * against the neighbor sets of the countries, so a turn costs as much as the number of actions in it, and not the size of the map.
+ */
+public class HumanTurn {
+    public static final int DRAFT = 0; // The kind of an action that adds troops to a country.
+    public static final int ATTACK = 1; // The kind of an action that applies the result of a battle.
+    public static final int FORTIFY = 2; // The kind of an action that moves troops between countries, and ends the turn.
+    private static final int[] ACTION_LENGTHS = {3, 6, 4}; // The length of the json array of every kind of action.
+
+    private final Country[] countries; // The countries array of the game.
+    private final Player player; // The player whose turn it is.
+    private int troopsToDraft; // The number of troops the player can still draft.
+    private int stage; // The kind of the last action that was applied, since actions of earlier stages aren't allowed after it.
+    private boolean isFinished; // Whether the player fortified, so no more actions are allowed.
+
+    /**
+     * A constructor that sets object variables.
+     * @param countries The countries array of the game.
+     * @param player The player whose turn it is.
+     * @param troopsToDraft The number of new troops the player got in this turn.
+     */
+    public HumanTurn(Country[] countries, Player player, int troopsToDraft) {
+        this.countries = countries;
+        this.player = player;
+        this.troopsToDraft = troopsToDraft;
+        this.stage = HumanTurn.DRAFT;
+    }
+
+    /**
+     * Validates an action and applies it if it is valid.
+     * @param action The json array of the action.
+     * @return Whether the action was valid (and applied).
+     * @throws JSONException If the action is empty or its elements aren't numbers.
+     */
+    public boolean apply(JSONArray action) {
+        int kind = action.getInt(0);
+        if (kind < HumanTurn.DRAFT || kind > HumanTurn.FORTIFY || action.length() != HumanTurn.ACTION_LENGTHS[kind]) return false;
+        if (this.isFinished || kind < this.stage) return false;
+        this.stage = kind;
+
+        switch (kind) {
+            case HumanTurn.DRAFT:
+                return this.draft(action.getInt(1), action.getInt(2));
+            case HumanTurn.ATTACK:
+                return this.attack(action.getInt(1), action.getInt(2), action.getInt(3), action.getInt(4), action.getInt(5));
+            case HumanTurn.FORTIFY:
+                this.isFinished = true;
+                return this.fortify(action.getInt(1), action.getInt(2), action.getInt(3));
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param countryId A country id.
+     * @return The country with the id, or null if there isn't one.
+     */
+    private Country getCountry(int countryId) {
+        return countryId >= 0 && countryId < this.countries.length ? this.countries[countryId] : null;
+    }
+
+    /**
+     * @param countryId A country id.
+     * @return Whether the country exists and the player controls it.
+     */
+    private boolean isPlayerCountry(int countryId) {
+        Country country = this.getCountry(countryId);
+        return country != null && country.getOwner() == this.player;
+    }
+
+    /**
+     * Adds new troops to a country of the player.
+     * @param countryId The id of the country.
+     * @param troops The number of troops to add.
+     * @return Whether the action was valid.
+     */
+    private boolean draft(int countryId, int troops) {
+        if (!this.isPlayerCountry(countryId) || troops < 1 || troops > this.troopsToDraft) return false;
+
+        this.troopsToDraft -= troops;
+        this.countries[countryId].addTroops(troops);
+        return true;
+    }
+
+    /**
+     * Applies the result of a battle between a country of the player and a neighbor of another player.
+     * The battle has to end like a real one: either the defense is out of troops, or the offense has only 1 troop left.
+     * @param fromId The id of the attacking country.
+     * @param toId The id of the attacked country.
+     * @param remainingAttackers The number of troops left on the attacking country.
+     * @param remainingDefenders The number of troops left on the attacked country.
+     * @param troopsToMove The number of troops that move to the attacked country if it was conquered.
+     * @return Whether the action was valid.
+     */
+    private boolean attack(int fromId, int toId, int remainingAttackers, int remainingDefenders, int troopsToMove) {
+        if (!this.isPlayerCountry(fromId) || this.getCountry(toId) == null || this.isPlayerCountry(toId)) return false;
+        Country attacker = this.countries[fromId], defender = this.countries[toId];
+        if (!attacker.isNeighbor(toId) || attacker.getNumOfTroops() < 2) return false;
+
+        if (remainingAttackers < 1 || remainingAttackers > attacker.getNumOfTroops() || remainingDefenders < 0 || remainingDefenders > defender.getNumOfTroops())
+            return false;
+        if (remainingDefenders == 0 ? remainingAttackers < 2 || troopsToMove < 1 || troopsToMove >= remainingAttackers : remainingAttackers != 1)
+            return false;
+
+        attacker.applyBattleResult(defender, remainingAttackers, remainingDefenders, troopsToMove);
+        return true;
+    }
+
+    /**
+     * Moves troops between two countries of the player that are linked by countries of the player.
+     * @param fromId The id of the country to move the troops from.
+     * @param toId The id of the country to move the troops to.
+     * @param troops The number of troops to move.
+     * @return Whether the action was valid.
+     */
+    private boolean fortify(int fromId, int toId, int troops) {
+        if (!this.isPlayerCountry(fromId) || !this.isPlayerCountry(toId) || fromId == toId) return false;
+        if (troops < 1 || troops >= this.countries[fromId].getNumOfTroops() || !this.isLinked(this.countries[fromId], this.countries[toId])) return false;
+
+        this.countries[fromId].addTroops(-troops);
+        this.countries[toId].addTroops(troops);
+        return true;
+    }
+
+    /**
+     * Searches for a path between two countries of the player that only goes through countries of the player (BFS).
+     * @param source The country to start from.
+     * @param destination The country to find.
+     * @return Whether there is a path.
+     */
+    private boolean isLinked(Country source, Country destination) {
+        BitSet visited = new BitSet(this.countries.length);
+        Deque<Country> queue = new ArrayDeque<>();
+        visited.set(source.getId());
+        queue.add(source);
+        while (!queue.isEmpty()) {
+            Country country = queue.poll();
+            if (country.isNeighbor(destination.getId())) return true;
+
+            for (Country neighbor : country.getNeighborCountries())
+                if (neighbor.getOwner() == this.player && !visited.get(neighbor.getId())) {
+                    visited.set(neighbor.getId());
+                    queue.add(neighbor);
+                }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A class that calculates the exact outcome of a journey of attacks along a path of defending countries.
+ * The full distribution of the attacking troops is carried from battle to battle: for every number of troops
+ * the attacker may have, the distribution of the troops that survive the next battle comes from a single battle
+ * distribution, and all the surviving troops (besides 1) move on to the conquered country, like Country.attack.
+ * Single battle distributions are memoized by the numbers of troops, and probabilities below TAIL_PROBABILITY are dropped.
+ * The distributions after every prefix of a journey are kept in a trie, keyed by the starting troops and the defending troops of
+ * the countries on the way, so journeys that share a prefix only calculate the battles after it.
+ * Every thread has its own engine (the caches aren't shared), like PathFinder.
+ */
+public class JourneyOdds {
+    public static final int MAX_TROOPS = 200; // The maximum number of troops on either side that is calculated exactly.
+    private static final double TAIL_PROBABILITY = 1e-9; // Probabilities below this are dropped from the distributions.
+    private static final int MAX_CACHED_BATTLES = 1 << 13; // The maximum number of cached single battle distributions. The cache is cleared when it is full.
+    private static final int MAX_CACHED_PREFIXES = 1 << 12; // The maximum number of cached journey prefixes. The cache is cleared when it is full.
+
+    private static final ThreadLocal<JourneyOdds> THREAD_ENGINE = ThreadLocal.withInitial(JourneyOdds::new); // The engine of every thread.
+
+    private final Map<Long, double[]> battleDistributions = new HashMap<>(); // The distributions of the surviving attackers of single battles, by the packed troops of both sides.
+    private final Map<Integer, Prefix> journeyRoots = new HashMap<>(); // The roots of the prefix trie, by the starting troops.
+    private int numOfPrefixes; // The number of prefixes in the trie.
+    private double[] battleStates = new double[0]; // A reused array for the probabilities of the states of a battle.
+
+    /**
+     * A node in the prefix trie - the distribution of the troops on the last conquered country after a prefix of a journey.
+     */
+    private static class Prefix {
+        private final double[] troopsDistribution; // The probability of every number of troops on the last conquered country (index 0 is failure).
+        private final Map<Integer, Prefix> children = new HashMap<>(); // The prefixes with one more country, by its defending troops.
+
+        /**
+         * A constructor that sets object variables.
+         */
+        private Prefix(double[] troopsDistribution) {
+            this.troopsDistribution = troopsDistribution;
+        }
+    }
+
+    /**
+     * @return The engine of the current thread.
+     */
+    public static JourneyOdds forCurrentThread() {
+        return JourneyOdds.THREAD_ENGINE.get();
+    }
+
+    /**
+     * @param numOfAttackingTroops The number of troops on the country the journey starts from.
+     * @param defendingTroops The number of troops on every country of the path, in the order they are attacked.
+     * @return Whether the journey can be calculated exactly (all the numbers of troops are at most MAX_TROOPS).
+     */
+    public static boolean isInRange(int numOfAttackingTroops, int[] defendingTroops) {
+        if (numOfAttackingTroops > JourneyOdds.MAX_TROOPS) return false;
+        for (int numOfDefendingTroops : defendingTroops)
+            if (numOfDefendingTroops > JourneyOdds.MAX_TROOPS) return false;
+        return true;
+    }
+
+    /**
+     * Calculates the outcome of a journey. The troops have to be in range (see isInRange).
+     * @param numOfAttackingTroops The number of troops on the country the journey starts from.
+     * @param defendingTroops The number of troops on every country of the path, in the order they are attacked.
+     * @return The outcome of the journey.
+     */
+    public JourneyOutcome calculate(int numOfAttackingTroops, int[] defendingTroops) {
+        if (this.numOfPrefixes + defendingTroops.length >= JourneyOdds.MAX_CACHED_PREFIXES) {
+            this.journeyRoots.clear();
+            this.numOfPrefixes = 0;
+        }
+
+        Prefix prefix = this.journeyRoots.get(numOfAttackingTroops);
+        if (prefix == null) {
+            double[] startDistribution = new double[numOfAttackingTroops + 1];
+            startDistribution[numOfAttackingTroops] = 1;
+            prefix = new Prefix(startDistribution);
+            this.journeyRoots.put(numOfAttackingTroops, prefix);
+            this.numOfPrefixes++;
+        }
+
+        for (int numOfDefendingTroops : defendingTroops) {
+            Prefix nextPrefix = prefix.children.get(numOfDefendingTroops);
+            if (nextPrefix == null) {
+                nextPrefix = new Prefix(this.calculateNextDistribution(prefix.troopsDistribution, numOfDefendingTroops));
+                prefix.children.put(numOfDefendingTroops, nextPrefix);
+                this.numOfPrefixes++;
+            }
+            prefix = nextPrefix;
+        }
+
+        return new JourneyOutcome(prefix.troopsDistribution);
+    }
+
+    /**
+     * Carries the distribution of the attacking troops through one more battle.
+     * @param troopsDistribution The probability of every number of troops on the attacking country (index 0 is failure).
+     * @param numOfDefendingTroops The number of troops on the country that is attacked.
+     * @return The probability of every number of troops on the conquered country (index 0 is failure).
+     */
+    private double[] calculateNextDistribution(double[] troopsDistribution, int numOfDefendingTroops) {
+        double[] nextDistribution = new double[troopsDistribution.length];
+        nextDistribution[0] = troopsDistribution[0];
+        for (int numOfTroops = 1; numOfTroops < troopsDistribution.length; numOfTroops++) {
+            double probability = troopsDistribution[numOfTroops];
+            if (probability < JourneyOdds.TAIL_PROBABILITY) {
+                nextDistribution[0] += probability; // Dropped tails count as failures, so the probability of success is never overestimated.
+                continue;
+            }
+
+            double[] survivorsDistribution = this.getBattleDistribution(numOfTroops, numOfDefendingTroops);
+            double winProbability = 0;
+            for (int survivors = 2; survivors < survivorsDistribution.length; survivors++) {
+                nextDistribution[survivors - 1] += probability * survivorsDistribution[survivors]; // 1 troop stays behind.
+                winProbability += survivorsDistribution[survivors];
+            }
+            nextDistribution[0] += probability * (1 - winProbability);
+        }
+
+        return nextDistribution;
+    }
+
+    /**
+     * @param numOfAttackingTroops The number of troops on the attacking country.
+     * @param numOfDefendingTroops The number of troops on the defending country.
+     * @return The probability of every number of attacking troops left when the attacker wins the battle. Read from the cache if possible.
+     */
+    private double[] getBattleDistribution(int numOfAttackingTroops, int numOfDefendingTroops) {
+        long key = ((long) numOfAttackingTroops << 32) | numOfDefendingTroops;
+        double[] survivorsDistribution = this.battleDistributions.get(key);
+        if (survivorsDistribution == null) {
+            if (this.battleDistributions.size() >= JourneyOdds.MAX_CACHED_BATTLES) this.battleDistributions.clear();
+            survivorsDistribution = this.calculateBattleDistribution(numOfAttackingTroops, numOfDefendingTroops);
+            this.battleDistributions.put(key, survivorsDistribution);
+        }
+        return survivorsDistribution;
+    }
+
+    /**
+     * Calculates the distribution of the attacking troops left when the attacker wins a battle, by going over the states
+     * of the battle from the first one. Every round only lowers the troops, so the states are visited with fewer attacking troops
+     * and then fewer defending troops, and every state is complete when it is visited.
+     * @param numOfAttackingTroops The number of troops on the attacking country.
+     * @param numOfDefendingTroops The number of troops on the defending country.
+     * @return The probability of every number of attacking troops left when the attacker wins (indexes below 2 are always 0).
+     */
+    private double[] calculateBattleDistribution(int numOfAttackingTroops, int numOfDefendingTroops) {
+        int width = numOfDefendingTroops + 1, numOfStates = (numOfAttackingTroops + 1) * width;
+        if (this.battleStates.length < numOfStates) this.battleStates = new double[numOfStates];
+        double[] states = this.battleStates;
+        Arrays.fill(states, 0, numOfStates, 0);
+        states[numOfAttackingTroops * width + numOfDefendingTroops] = 1;
+
+        double[] survivorsDistribution = new double[numOfAttackingTroops + 1];
+        for (int attackers = numOfAttackingTroops; attackers >= 1; attackers--)
+            for (int defenders = numOfDefendingTroops; defenders >= 0; defenders--) {
+                double probability = states[attackers * width + defenders];
+                if (probability < JourneyOdds.TAIL_PROBABILITY) continue;
+
+                if (defenders == 0) {
+                    survivorsDistribution[attackers] = probability;
+                    continue;
+                }
+                if (attackers == 1) continue; // The attacker lost.
+
+                double[] outcomes = BattleOdds.getRoundOutcomes(Math.min(attackers - 1, 3), Math.min(defenders, 2));
+                for (int attackerLosses = 0; attackerLosses < outcomes.length; attackerLosses++)
+                    states[(attackers - attackerLosses) * width + defenders - (outcomes.length - 1 - attackerLosses)] += probability * outcomes[attackerLosses];
+            }
+
+        return survivorsDistribution;
+    }
+}
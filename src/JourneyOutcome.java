@@ -0,0 +1,58 @@
+/**
+ * A class representing the outcome of a journey of attacks - the distribution of the troops that end up on the destination.
+ * A journey that fails ends with 0 troops on the destination.
+ */
+public class JourneyOutcome {
+    private final double[] troopsDistribution; // The probability of every number of troops on the destination (index 0 is failure).
+
+    /**
+     * A constructor that sets object variables.
+     * @param troopsDistribution The probability of every number of troops on the destination (index 0 is failure).
+     */
+    public JourneyOutcome(double[] troopsDistribution) {
+        this.troopsDistribution = troopsDistribution;
+    }
+
+    /**
+     * @return The probability all the attacks of the journey will be successful.
+     */
+    public double getProbabilityOfSuccess() {
+        return 1 - this.troopsDistribution[0];
+    }
+
+    /**
+     * @param numOfTroops A number of troops.
+     * @return The probability the journey ends with exactly this number of troops on the destination.
+     */
+    public double getProbabilityOfTroops(int numOfTroops) {
+        return numOfTroops < this.troopsDistribution.length ? this.troopsDistribution[numOfTroops] : 0;
+    }
+
+    /**
+     * @return The expected number of troops on the destination (failures count as 0).
+     */
+    public double getExpectedTroops() {
+        double expectedTroops = 0;
+        for (int numOfTroops = 1; numOfTroops < this.troopsDistribution.length; numOfTroops++)
+            expectedTroops += numOfTroops * this.troopsDistribution[numOfTroops];
+        return expectedTroops;
+    }
+
+    /**
+     * @param quantile A probability between 0 and 1.
+     * @return The minimum number of troops on the destination that the journey ends with at most, with at least this probability (failures count as 0).
+     */
+    public int getTroopsQuantile(double quantile) {
+        double cumulativeProbability = 0;
+        for (int numOfTroops = 0; numOfTroops < this.troopsDistribution.length; numOfTroops++) {
+            cumulativeProbability += this.troopsDistribution[numOfTroops];
+            if (cumulativeProbability >= quantile) return numOfTroops;
+        }
+        return this.troopsDistribution.length - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "success " + this.getProbabilityOfSuccess() + ", expected troops " + this.getExpectedTroops() + ", median troops " + this.getTroopsQuantile(0.5);
+    }
+}
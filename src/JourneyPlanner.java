@@ -0,0 +1,81 @@
+import java.util.List;
+
+/**
+ * A class that plans a journey of attacks along a path that was already found, without searching the path again.
+ * The probability of the journey is calculated exactly by JourneyOdds. When the troops are too many for it, the probabilities
+ * of winning the battles are multiplied, and the troops that survive a battle are estimated as the probability of winning it times the attacking troops.
+ * More attacking troops never make the journey less likely to succeed, so the minimum number of troops for a probability is found with a binary search.
+ */
+public class JourneyPlanner {
+    private final int[] defendingTroops; // The number of troops on every country of the path, in the order they are attacked.
+
+    /**
+     * A constructor that sets object variables.
+     * @param defendingTroops The number of troops on every country of the path, in the order they are attacked.
+     */
+    public JourneyPlanner(int[] defendingTroops) {
+        this.defendingTroops = defendingTroops;
+    }
+
+    /**
+     * Creates a planner for a path, like the ones getPathToRival returns.
+     * @param path A stack with the countries of the path. The first country to conquer is on top.
+     * @return The planner.
+     */
+    public static JourneyPlanner forPath(List<Country> path) {
+        int[] defendingTroops = new int[path.size()];
+        for (int i = 0; i < defendingTroops.length; i++)
+            defendingTroops[i] = path.get(path.size() - 1 - i).getNumOfTroops();
+        return new JourneyPlanner(defendingTroops);
+    }
+
+    public int getPathLength() {
+        return this.defendingTroops.length;
+    }
+
+    /**
+     * @param numOfAttackingTroops The number of troops on the country the journey starts from.
+     * @return The exact outcome of the journey, or null if the troops are too many to calculate it.
+     */
+    public JourneyOutcome getOutcome(int numOfAttackingTroops) {
+        if (!JourneyOdds.isInRange(numOfAttackingTroops, this.defendingTroops)) return null;
+        return JourneyOdds.forCurrentThread().calculate(numOfAttackingTroops, this.defendingTroops);
+    }
+
+    /**
+     * @param numOfAttackingTroops The number of troops on the country the journey starts from.
+     * @return The probability all the attacks of the journey will be successful (0 if the path is empty).
+     */
+    public float getProbabilityOfSuccess(int numOfAttackingTroops) {
+        if (this.defendingTroops.length == 0) return 0;
+        JourneyOutcome outcome = this.getOutcome(numOfAttackingTroops);
+        if (outcome != null) return (float) outcome.getProbabilityOfSuccess();
+
+        float journeyProbability = 1;
+        int troopsRemaining = numOfAttackingTroops;
+        for (int numOfDefendingTroops : this.defendingTroops) {
+            float battleProbability = BattleUtils.percentageOfWinning(troopsRemaining, numOfDefendingTroops);
+            journeyProbability *= battleProbability;
+            troopsRemaining = Math.round(battleProbability * troopsRemaining);
+        }
+        return journeyProbability;
+    }
+
+    /**
+     * Finds the minimum number of troops for the journey to succeed with at least some probability.
+     * @param minTroops The minimum number of troops to check (the troops that are already on the country).
+     * @param maxTroops The maximum number of troops to check.
+     * @param threshold The probability.
+     * @return The minimum number of troops between minTroops and maxTroops, or -1 if even maxTroops aren't enough.
+     */
+    public int getMinimumTroops(int minTroops, int maxTroops, double threshold) {
+        if (minTroops > maxTroops || this.getProbabilityOfSuccess(maxTroops) < threshold) return -1;
+
+        while (minTroops < maxTroops) {
+            int middle = (minTroops + maxTroops) >>> 1;
+            if (this.getProbabilityOfSuccess(middle) < threshold) minTroops = middle + 1;
+            else maxTroops = middle;
+        }
+        return minTroops;
+    }
+}
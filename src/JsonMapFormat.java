@@ -0,0 +1,96 @@
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The json format of maps. The map is an object with an array of continents (every continent is an object with its name and bonus)
+ * and an array of countries (every country is an object with its name, the name of its continent and the ids of its neighbors).
+ * The id of a country is its index in the array, and the index of a continent is its index in the array.
+ */
+public class JsonMapFormat implements MapFormat {
+    public static final String EXTENSION = ".json"; // The extension of json map files.
+
+    @Override
+    public MapTopology read(InputStream inputStream) throws IOException {
+        try {
+            JSONObject mapObj = new JSONObject(new JSONTokener(inputStream));
+
+            JSONArray continentsArray = mapObj.getJSONArray("continents");
+            String[] continentNames = new String[continentsArray.length()];
+            int[] continentBonuses = new int[continentsArray.length()];
+            Map<String, Integer> continentIndexes = new HashMap<>();
+            for (int continent = 0; continent < continentNames.length; continent++) {
+                JSONObject continentObj = continentsArray.getJSONObject(continent);
+                continentNames[continent] = continentObj.getString("name");
+                continentBonuses[continent] = continentObj.getInt("bonus");
+                if (continentIndexes.put(continentNames[continent], continent) != null)
+                    throw new IOException("Invalid map: the continent " + continentNames[continent] + " appears twice");
+            }
+
+            JSONArray countriesArray = mapObj.getJSONArray("countries");
+            String[] countryNames = new String[countriesArray.length()];
+            int[][] neighbors = new int[countriesArray.length()][];
+            int[] countryContinents = new int[countriesArray.length()];
+            for (int countryId = 0; countryId < countryNames.length; countryId++) {
+                JSONObject countryObj = countriesArray.getJSONObject(countryId);
+                countryNames[countryId] = countryObj.getString("name");
+
+                Integer continent = continentIndexes.get(countryObj.getString("continent"));
+                if (continent == null)
+                    throw new IOException("Invalid map: the continent of " + countryNames[countryId] + " isn't in the continents array");
+                countryContinents[countryId] = continent;
+
+                JSONArray neighborsArray = countryObj.getJSONArray("neighbors");
+                neighbors[countryId] = new int[neighborsArray.length()];
+                for (int i = 0; i < neighbors[countryId].length; i++)
+                    neighbors[countryId][i] = neighborsArray.getInt(i);
+            }
+
+            MapTopology topology = new MapTopology(countryNames, neighbors, countryContinents, continentNames, continentBonuses);
+            MapFormat.validate(topology);
+            return topology;
+        } catch (JSONException e) {
+            throw new IOException("Invalid map: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void write(MapTopology topology, OutputStream outputStream) throws IOException {
+        JSONArray continentsArray = new JSONArray();
+        for (int continent = 0; continent < topology.getNumOfContinents(); continent++) {
+            JSONObject continentObj = new JSONObject();
+            continentObj.put("name", topology.getContinentName(continent));
+            continentObj.put("bonus", topology.getContinentBonus(continent));
+            continentsArray.put(continentObj);
+        }
+
+        JSONArray countriesArray = new JSONArray();
+        for (int countryId = 0; countryId < topology.getNumOfCountries(); countryId++) {
+            JSONObject countryObj = new JSONObject();
+            countryObj.put("name", topology.getCountryName(countryId));
+            countryObj.put("continent", topology.getContinentName(topology.getContinent(countryId)));
+            JSONArray neighborsArray = new JSONArray();
+            for (int neighborId : topology.getNeighbors(countryId))
+                neighborsArray.put(neighborId);
+            countryObj.put("neighbors", neighborsArray);
+            countriesArray.put(countryObj);
+        }
+
+        JSONObject mapObj = new JSONObject();
+        mapObj.put("continents", continentsArray);
+        mapObj.put("countries", countriesArray);
+        Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        writer.write(mapObj.toString());
+        writer.flush();
+    }
+}
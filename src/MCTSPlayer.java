@@ -0,0 +1,544 @@
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An AI player that plans its turn with Monte Carlo tree search, instead of the fixed strategy of AIPlayer.
+ * Every decision of the turn (where to draft, what to attack next and where to fortify) is searched on a compact GameState
+ * under a wall-clock budget, and then made on the live board.
+ * The search is root parallel - the thread of the game and a few threads of the search pool of the TurnScheduler grow their own trees
+ * with their own random generators, and the visits of the actions of the roots are summed to choose the action.
+ * The tree of the game thread always searches, so a decision gets rollouts even when the search pool is busy with other games.
+ * The trees are open loop: they keep actions and not states, and battles are resolved again with BattleResolver in every iteration,
+ * so the children of a node that are searched are the actions that are legal in the state of the current iteration.
+ */
+public class MCTSPlayer extends AIPlayer {
+    private static final long MOVE_BUDGET_MILLIS = 250; // The maximum time to search for a single decision.
+    private static final long TURN_BUDGET_MILLIS = 3000; // The maximum time to search in a whole turn. When it is over, the turn ends without more attacks.
+    private static final int MAX_HELPER_TREES = 3; // The maximum number of trees that are grown on the search pool for every decision, besides the tree of the game thread.
+    private static final int MAX_ACTIONS = 24; // The maximum number of actions that are searched in every node (the most promising ones).
+    private static final int ROLLOUT_TURNS = 8; // The number of turns played with the default policy after leaving the tree.
+    private static final double EXPLORATION = 1.4; // The exploration constant of UCT.
+
+    private static final int DRAFT = 0; // An action of drafting all the new troops to a country.
+    private static final int ATTACK = 1; // An action of attacking from a country to a neighbor, moving all the troops on a win.
+    private static final int END_ATTACKS = 2; // An action of moving on to the fortify phase.
+    private static final int FORTIFY = 3; // An action of moving all the troops (besides 1) from a country to a neighbor, and ending the turn.
+    private static final int END_TURN = 4; // An action of ending the turn without fortifying.
+    private static final int COUNTRY_BITS = 28; // The number of bits of every country id in an action.
+
+    private long turnRollouts; // The number of rollouts that were searched in the last turn.
+    private long turnSearchNanos; // The time that was spent searching in the last turn.
+
+    /**
+     * A constructor that creates a new AI that plans with tree search.
+     * @param AICount The number of this AI in the game (so the name will be unique).
+     * @param color The color of the player.
+     * @param game The game object to use to play turns.
+     */
+    public MCTSPlayer(int AICount, String color, GameManager game) {
+        super(AICount, color, game);
+    }
+
+    /**
+     * Packs an action into a long.
+     * @param kind The kind of the action.
+     * @param from The id of the country the action is from (or 0).
+     * @param to The id of the country the action is to (or 0).
+     * @return The action.
+     */
+    private static long packAction(int kind, int from, int to) {
+        return ((long) kind << (2 * MCTSPlayer.COUNTRY_BITS)) | ((long) from << MCTSPlayer.COUNTRY_BITS) | to;
+    }
+
+    private static int getKind(long action) {
+        return (int) (action >>> (2 * MCTSPlayer.COUNTRY_BITS));
+    }
+
+    private static int getFrom(long action) {
+        return (int) (action >>> MCTSPlayer.COUNTRY_BITS) & ((1 << MCTSPlayer.COUNTRY_BITS) - 1);
+    }
+
+    private static int getTo(long action) {
+        return (int) action & ((1 << MCTSPlayer.COUNTRY_BITS) - 1);
+    }
+
+    /**
+     * @return The number of rollouts per second in the last turn.
+     */
+    public double getRolloutsPerSecond() {
+        return this.turnSearchNanos == 0 ? 0 : this.turnRollouts * 1e9 / this.turnSearchNanos;
+    }
+
+    @Override
+    public void doTurn() {
+        GameManager game = this.getGame();
+        Country[] countries = game.getCountries();
+        int me = game.getPlayers().indexOf(this);
+        long turnDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MCTSPlayer.TURN_BUDGET_MILLIS);
+        this.turnRollouts = 0;
+        this.turnSearchNanos = 0;
+
+        long action = this.search(this.captureState(me, GameState.DRAFT_PHASE), turnDeadline);
+        if (MCTSPlayer.getKind(action) == MCTSPlayer.DRAFT)
+            countries[MCTSPlayer.getTo(action)].addTroops(this.getNumberOfNewTroops(game.getContinents()));
+
+        while (System.nanoTime() < turnDeadline && !Thread.currentThread().isInterrupted()) {
+            action = this.search(this.captureState(me, GameState.ATTACK_PHASE), turnDeadline);
+            if (MCTSPlayer.getKind(action) != MCTSPlayer.ATTACK) break;
+            countries[MCTSPlayer.getFrom(action)].attack(countries[MCTSPlayer.getTo(action)], true);
+        }
+
+        if (System.nanoTime() < turnDeadline && !Thread.currentThread().isInterrupted()) {
+            action = this.search(this.captureState(me, GameState.FORTIFY_PHASE), turnDeadline);
+            if (MCTSPlayer.getKind(action) == MCTSPlayer.FORTIFY) {
+                Country from = countries[MCTSPlayer.getFrom(action)];
+                countries[MCTSPlayer.getTo(action)].addTroops(from.getNumOfTroops() - 1);
+                from.occupy(this, 1);
+            }
+        }
+
+        System.out.println(this.getName() + " searched " + this.turnRollouts + " rollouts in " + this.turnSearchNanos / 1000000 + " ms (" + Math.round(this.getRolloutsPerSecond()) + " rollouts per second)");
+    }
+
+    /**
+     * Adds the rollouts and the visits of the actions of the root of a tree to the search.
+     * @param tree The tree.
+     * @param visits The visits of the actions in all the trees.
+     */
+    private void addVisits(SearchTree tree, Map<Long, Integer> visits) {
+        this.turnRollouts += tree.numOfRollouts;
+        for (Node child : tree.root.children)
+            visits.merge(child.action, child.visits, Integer::sum);
+    }
+
+    /**
+     * @param me My index in the players list.
+     * @param phase The phase of the turn.
+     * @return The state of the game now, in the phase.
+     */
+    private GameState captureState(int me, int phase) {
+        GameState state = this.getGame().captureState();
+        state.setTurn(state.getTurn(), phase, me);
+        return state;
+    }
+
+    /**
+     * Searches for the best action in a state, with a tree on the current thread and helper trees on the search pool.
+     * Helper trees that didn't start by the time the tree of the current thread is done are cancelled, so a busy pool doesn't hold the turn.
+     * If the thread is interrupted, the search stops, the interrupt flag is kept and the turn is ended.
+     * @param state The state of the game, with me as the current player.
+     * @param turnDeadline The time (in System.nanoTime) the turn has to end by.
+     * @return The action with the most visits in all the trees.
+     * @throws IllegalStateException If a helper tree failed.
+     */
+    private long search(GameState state, long turnDeadline) {
+        long startTime = System.nanoTime();
+        long deadline = Math.min(startTime + TimeUnit.MILLISECONDS.toNanos(MCTSPlayer.MOVE_BUDGET_MILLIS), turnDeadline);
+        ActionList legalActions = new ActionList();
+        generateActions(state, legalActions);
+        if (legalActions.size() == 0) return packAction(MCTSPlayer.END_TURN, 0, 0);
+        if (legalActions.size() == 1) return legalActions.get(0);
+
+        TurnScheduler scheduler = TurnScheduler.getInstance();
+        BattleResolver resolver = BattleResolver.current();
+        SearchTree ownTree = new SearchTree(state, resolver.split(), deadline);
+        List<SearchTree> helperTrees = new ArrayList<>();
+        List<Future<SearchTree>> helperResults = new ArrayList<>();
+        for (int i = 0; i < Math.min(MCTSPlayer.MAX_HELPER_TREES, scheduler.getNumOfSearchThreads()); i++) {
+            SearchTree helperTree = new SearchTree(state, resolver.split(), deadline);
+            helperTrees.add(helperTree);
+            helperResults.add(scheduler.getSearchExecutor().submit(helperTree));
+        }
+
+        Map<Long, Integer> visits = new HashMap<>();
+        this.addVisits(ownTree.call(), visits);
+        for (int i = 0; i < helperTrees.size(); i++) {
+            if (helperTrees.get(i).claim()) { // The tree didn't start, so it never will.
+                helperResults.get(i).cancel(false);
+                continue;
+            }
+
+            try {
+                this.addVisits(helperResults.get(i).get(), visits);
+            } catch (InterruptedException e) {
+                for (Future<SearchTree> helperResult : helperResults)
+                    helperResult.cancel(true);
+                Thread.currentThread().interrupt();
+                this.turnSearchNanos += System.nanoTime() - startTime;
+                return packAction(MCTSPlayer.END_TURN, 0, 0);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("A search tree failed", e.getCause());
+            }
+        }
+        this.turnSearchNanos += System.nanoTime() - startTime;
+        if (Thread.currentThread().isInterrupted()) return packAction(MCTSPlayer.END_TURN, 0, 0); // The visits are partial.
+
+        long bestAction = legalActions.get(0); // The most promising action, if there was no time to search.
+        int bestVisits = 0;
+        for (int i = 0; i < legalActions.size(); i++) {
+            int actionVisits = visits.getOrDefault(legalActions.get(i), 0);
+            if (actionVisits > bestVisits) {
+                bestAction = legalActions.get(i);
+                bestVisits = actionVisits;
+            }
+        }
+        return bestAction;
+    }
+
+    /**
+     * @param state A state.
+     * @param countryId A country id.
+     * @param player A player index.
+     * @return Whether the country has a neighbor that isn't controlled by the player.
+     */
+    private static boolean hasEnemyNeighbor(GameState state, int countryId, int player) {
+        for (int neighborId : state.getTopology().getNeighbors(countryId))
+            if (state.getOwner(neighborId) != player) return true;
+        return false;
+    }
+
+    /**
+     * Generates the most promising legal actions of the current player in the phase of the state.
+     * @param state The state.
+     * @param actions The list to put the actions in. Cleared first.
+     */
+    private static void generateActions(GameState state, ActionList actions) {
+        actions.clear();
+        MapTopology topology = state.getTopology();
+        int player = state.getCurrentPlayer();
+        switch (state.getPhase()) {
+            case GameState.DRAFT_PHASE:
+                for (int countryId = 0; countryId < topology.getNumOfCountries(); countryId++)
+                    if (state.getOwner(countryId) == player) {
+                        int enemyTroops = 0;
+                        for (int neighborId : topology.getNeighbors(countryId))
+                            if (state.getOwner(neighborId) != player) enemyTroops += state.getTroops(neighborId);
+                        if (enemyTroops > 0)
+                            actions.add(packAction(MCTSPlayer.DRAFT, 0, countryId), enemyTroops);
+                    }
+                break;
+            case GameState.ATTACK_PHASE:
+                actions.add(packAction(MCTSPlayer.END_ATTACKS, 0, 0), Integer.MAX_VALUE);
+                for (int from = 0; from < topology.getNumOfCountries(); from++)
+                    if (state.getOwner(from) == player && state.getTroops(from) > 1)
+                        for (int to : topology.getNeighbors(from))
+                            if (state.getOwner(to) != player && state.getTroops(from) > state.getTroops(to))
+                                actions.add(packAction(MCTSPlayer.ATTACK, from, to), state.getTroops(from) - state.getTroops(to));
+                break;
+            default:
+                actions.add(packAction(MCTSPlayer.END_TURN, 0, 0), Integer.MAX_VALUE);
+                for (int from = 0; from < topology.getNumOfCountries(); from++)
+                    if (state.getOwner(from) == player && state.getTroops(from) > 1 && !hasEnemyNeighbor(state, from, player))
+                        for (int to : topology.getNeighbors(from))
+                            if (hasEnemyNeighbor(state, to, player))
+                                actions.add(packAction(MCTSPlayer.FORTIFY, from, to), state.getTroops(from));
+        }
+    }
+
+    /**
+     * A bounded list of actions that keeps only the actions with the highest scores, in the order of their scores.
+     */
+    private static class ActionList {
+        private final long[] actions = new long[MCTSPlayer.MAX_ACTIONS]; // The actions, from the highest score.
+        private final int[] scores = new int[MCTSPlayer.MAX_ACTIONS]; // The score of every action.
+        private int size; // The number of actions in the list.
+
+        /**
+         * Adds an action, if its score is high enough. Insertion sort, since the list is small.
+         * @param action The action.
+         * @param score The score of the action. Actions with equal scores keep the order they were added in.
+         */
+        private void add(long action, int score) {
+            if (this.size == MCTSPlayer.MAX_ACTIONS && score <= this.scores[this.size - 1]) return;
+
+            int index = Math.min(this.size, MCTSPlayer.MAX_ACTIONS - 1);
+            while (index > 0 && this.scores[index - 1] < score) {
+                this.actions[index] = this.actions[index - 1];
+                this.scores[index] = this.scores[index - 1];
+                index--;
+            }
+            this.actions[index] = action;
+            this.scores[index] = score;
+            if (this.size < MCTSPlayer.MAX_ACTIONS) this.size++;
+        }
+
+        private long get(int index) {
+            return this.actions[index];
+        }
+
+        private int size() {
+            return this.size;
+        }
+
+        private void clear() {
+            this.size = 0;
+        }
+    }
+
+    /**
+     * A node in a search tree - an action and the statistics of the iterations that went through it.
+     */
+    private static class Node {
+        private final long action; // The action that leads to the node from its parent.
+        private final Node parent; // The parent of the node, null for the root.
+        private final List<Node> children = new ArrayList<>(); // The children of the node that were expanded.
+        private int visits; // The number of iterations that went through the node.
+        private double totalValue; // The sum of the values of the iterations that went through the node, from the point of view of the searching player.
+
+        /**
+         * A constructor that sets object variables.
+         */
+        private Node(long action, Node parent) {
+            this.action = action;
+            this.parent = parent;
+        }
+
+        /**
+         * @param action An action.
+         * @return The child of the action, or null if it wasn't expanded.
+         */
+        private Node getChild(long action) {
+            for (Node child : this.children)
+                if (child.action == action) return child;
+            return null;
+        }
+    }
+
+    /**
+     * A search tree that is grown by a single thread until the deadline. Has its own state to play iterations on and its own random generator.
+     * A tree is grown only by the thread that claims it first, so the searching player can take back a tree that didn't start.
+     */
+    private static class SearchTree implements Callable<SearchTree> {
+        private final GameState rootState; // The state at the root. Shared by all the trees, and never changed.
+        private final GameState state; // The state of the current iteration.
+        private final int player; // The index of the searching player.
+        private final int rootTurn; // The turn number at the root. The tree covers only the rest of this turn.
+        private final SplittableRandom random; // The random generator of the tree, for the choices of the policies.
+        private final BattleResolver resolver; // The resolver of the battles of the tree.
+        private final long deadline; // The time (in System.nanoTime) the search has to end by.
+        private final ActionList actions = new ActionList(); // A reused list for the legal actions in the current node.
+        private final Node root = new Node(-1, null); // The root of the tree.
+        private final AtomicBoolean isClaimed = new AtomicBoolean(); // Whether a thread started growing the tree, or the tree was taken back.
+        private int numOfRollouts; // The number of iterations that were completed.
+
+        /**
+         * A constructor that sets object variables.
+         */
+        private SearchTree(GameState rootState, SplittableRandom random, long deadline) {
+            this.rootState = rootState;
+            this.state = rootState.copy();
+            this.player = rootState.getCurrentPlayer();
+            this.rootTurn = rootState.getTurn();
+            this.random = random;
+            this.resolver = new BattleResolver(random.split());
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return Whether the tree wasn't claimed before, and now belongs to the caller.
+         */
+        private boolean claim() {
+            return this.isClaimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Grows the tree until the deadline or until the thread is interrupted, if it wasn't claimed by another thread.
+         * @return The tree.
+         */
+        @Override
+        public SearchTree call() {
+            if (!this.claim()) return this;
+            while (System.nanoTime() < this.deadline && !Thread.currentThread().isInterrupted()) {
+                this.state.copyFrom(this.rootState);
+                Node node = this.select();
+                double value = this.rollout();
+                for (; node != null; node = node.parent) {
+                    node.visits++;
+                    node.totalValue += value;
+                }
+                this.numOfRollouts++;
+            }
+            return this;
+        }
+
+        /**
+         * Goes down the tree with UCT, applying the actions to the state, until an action that wasn't expanded is expanded or the turn is over.
+         * @return The last node.
+         */
+        private Node select() {
+            Node node = this.root;
+            while (this.state.getTurn() == this.rootTurn && !this.isGameOver()) {
+                generateActions(this.state, this.actions);
+                if (this.actions.size() == 0) break;
+
+                int numOfUntried = 0;
+                long untriedAction = 0;
+                Node bestChild = null;
+                double bestScore = Double.NEGATIVE_INFINITY, logVisits = Math.log(node.visits + 1);
+                for (int i = 0; i < this.actions.size(); i++) {
+                    Node child = node.getChild(this.actions.get(i));
+                    if (child == null) {
+                        if (this.random.nextInt(++numOfUntried) == 0) untriedAction = this.actions.get(i); // Reservoir sampling of an untried action.
+                    } else if (numOfUntried == 0) {
+                        double score = child.totalValue / child.visits + MCTSPlayer.EXPLORATION * Math.sqrt(logVisits / child.visits);
+                        if (score > bestScore) {
+                            bestChild = child;
+                            bestScore = score;
+                        }
+                    }
+                }
+
+                if (numOfUntried > 0) {
+                    Node child = new Node(untriedAction, node);
+                    node.children.add(child);
+                    this.apply(untriedAction);
+                    return child;
+                }
+
+                this.apply(bestChild.action);
+                node = bestChild;
+            }
+
+            return node;
+        }
+
+        /**
+         * Applies an action of the current player to the state. Battles are resolved with the resolver of the tree.
+         * @param action The action.
+         */
+        private void apply(long action) {
+            int from = MCTSPlayer.getFrom(action), to = MCTSPlayer.getTo(action), player = this.state.getCurrentPlayer();
+            switch (MCTSPlayer.getKind(action)) {
+                case MCTSPlayer.DRAFT:
+                    this.state.addTroops(to, this.state.getNumberOfNewTroops(player));
+                    this.state.setTurn(this.state.getTurn(), GameState.ATTACK_PHASE, player);
+                    break;
+                case MCTSPlayer.ATTACK:
+                    this.attack(from, to);
+                    break;
+                case MCTSPlayer.END_ATTACKS:
+                    this.state.setTurn(this.state.getTurn(), GameState.FORTIFY_PHASE, player);
+                    break;
+                case MCTSPlayer.FORTIFY:
+                    this.state.addTroops(to, this.state.getTroops(from) - 1);
+                    this.state.setTroops(from, 1);
+                    this.endTurn();
+                    break;
+                default:
+                    this.endTurn();
+            }
+        }
+
+        /**
+         * Resolves an attack like Country.attack, moving all the troops (besides 1) to the country on a win.
+         * @param from The id of the attacking country.
+         * @param to The id of the attacked country.
+         * @return Whether the attack was a success.
+         */
+        private boolean attack(int from, int to) {
+            long battleResults = this.resolver.resolve(this.state.getTroops(from), this.state.getTroops(to));
+            int remainingAttackers = BattleResolver.getRemainingAttackers(battleResults), remainingDefenders = BattleResolver.getRemainingDefenders(battleResults);
+            if (remainingDefenders == 0) {
+                this.state.setTroops(from, 1);
+                this.state.setOwner(to, this.state.getOwner(from));
+                this.state.setTroops(to, remainingAttackers - 1);
+                return true;
+            }
+
+            this.state.setTroops(from, remainingAttackers);
+            this.state.setTroops(to, remainingDefenders);
+            return false;
+        }
+
+        /**
+         * Ends the turn of the current player and moves on to the draft of the next player that didn't lose.
+         */
+        private void endTurn() {
+            int nextPlayer = this.state.getCurrentPlayer();
+            do
+                nextPlayer = (nextPlayer + 1) % this.state.getNumOfPlayers();
+            while (this.state.hasLost(nextPlayer) && nextPlayer != this.state.getCurrentPlayer());
+            this.state.setTurn(this.state.getTurn() + 1, GameState.DRAFT_PHASE, nextPlayer);
+        }
+
+        /**
+         * @return Whether only one player has countries.
+         */
+        private boolean isGameOver() {
+            int numOfPlayersLeft = 0;
+            for (int player = 0; player < this.state.getNumOfPlayers(); player++)
+                if (!this.state.hasLost(player)) numOfPlayersLeft++;
+            return numOfPlayersLeft <= 1;
+        }
+
+        /**
+         * Plays the rest of the current turn and some more turns with the default policy, and evaluates the result.
+         * @return The value of the result for the searching player, between 0 and 1.
+         */
+        private double rollout() {
+            int lastTurn = this.rootTurn + MCTSPlayer.ROLLOUT_TURNS;
+            while (this.state.getTurn() <= lastTurn && !this.isGameOver())
+                this.playDefaultTurn();
+
+            return this.evaluate();
+        }
+
+        /**
+         * Plays the rest of the turn of the current player with a fast default policy: drafts all the troops to a random country
+         * with enemy neighbors, attacks from every country while it has clearly more troops than its weakest enemy neighbor and doesn't fortify.
+         */
+        private void playDefaultTurn() {
+            MapTopology topology = this.state.getTopology();
+            int player = this.state.getCurrentPlayer(), numOfCountries = topology.getNumOfCountries();
+            if (this.state.getPhase() == GameState.DRAFT_PHASE) {
+                int draftCountry = -1, numOfCandidates = 0;
+                for (int countryId = 0; countryId < numOfCountries; countryId++)
+                    if (this.state.getOwner(countryId) == player && hasEnemyNeighbor(this.state, countryId, player) && this.random.nextInt(++numOfCandidates) == 0)
+                        draftCountry = countryId;
+                if (draftCountry != -1) this.state.addTroops(draftCountry, this.state.getNumberOfNewTroops(player));
+            }
+
+            if (this.state.getPhase() != GameState.FORTIFY_PHASE) {
+                int firstCountry = this.random.nextInt(numOfCountries);
+                for (int i = 0; i < numOfCountries; i++) {
+                    int from = (firstCountry + i) % numOfCountries;
+                    while (this.state.getOwner(from) == player && this.state.getTroops(from) > 2) {
+                        int weakestNeighbor = -1;
+                        for (int neighborId : topology.getNeighbors(from))
+                            if (this.state.getOwner(neighborId) != player && (weakestNeighbor == -1 || this.state.getTroops(neighborId) < this.state.getTroops(weakestNeighbor)))
+                                weakestNeighbor = neighborId;
+                        if (weakestNeighbor == -1 || this.state.getTroops(from) <= this.state.getTroops(weakestNeighbor) + 1 || !this.attack(from, weakestNeighbor))
+                            break;
+                        from = weakestNeighbor;
+                    }
+                }
+            }
+
+            this.endTurn();
+        }
+
+        /**
+         * Evaluates the state for the searching player, by its share of the countries, troops and new troops of all the players.
+         * @return The value, between 0 (lost) and 1 (won).
+         */
+        private double evaluate() {
+            if (this.state.hasLost(this.player)) return 0;
+            if (this.isGameOver()) return 1;
+
+            int totalTroops = 0, myTroops = 0, totalNewTroops = 0;
+            for (int countryId = 0; countryId < this.state.getTopology().getNumOfCountries(); countryId++) {
+                totalTroops += this.state.getTroops(countryId);
+                if (this.state.getOwner(countryId) == this.player) myTroops += this.state.getTroops(countryId);
+            }
+            for (int player = 0; player < this.state.getNumOfPlayers(); player++)
+                if (!this.state.hasLost(player)) totalNewTroops += this.state.getNumberOfNewTroops(player);
+
+            double countriesShare = (double) this.state.getNumOfCountries(this.player) / this.state.getTopology().getNumOfCountries();
+            return (countriesShare + (double) myTroops / totalTroops + (double) this.state.getNumberOfNewTroops(this.player) / totalNewTroops) / 3;
+        }
+    }
+}
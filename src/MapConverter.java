@@ -0,0 +1,35 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A command line tool that converts map files between formats, by their extensions. For example, compiles a json map into a binary map:
+ * java MapConverter map.json map.rmap
+ * The map is validated when it is read, so the tool also checks maps.
+ */
+public class MapConverter {
+    /**
+     * Converts a map file.
+     * @param args The path of the map file to read and the path of the file to write.
+     * @throws IOException If a file can't be read or written, or the map is invalid.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: java MapConverter <input map> <output map> (.json or " + BinaryMapFormat.EXTENSION + ")");
+            return;
+        }
+
+        Path inputFile = Paths.get(args[0]), outputFile = Paths.get(args[1]);
+        long startTime = System.nanoTime();
+        MapTopology topology = MapFormat.forFileName(args[0]).read(inputFile);
+        System.out.println("Read " + topology.getNumOfCountries() + " countries and " + topology.getNumOfContinents() + " continents in "
+                + (System.nanoTime() - startTime) / 1000000 + " ms");
+
+        try (OutputStream outputStream = Files.newOutputStream(outputFile)) {
+            MapFormat.forFileName(args[1]).write(topology, outputStream);
+        }
+        System.out.println("Wrote " + outputFile + " (" + Files.size(outputFile) + " bytes)");
+    }
+}
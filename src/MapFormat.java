@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A format of map files - the countries, their continents and neighbors, and the bonuses of the continents.
+ * Maps are read into a MapTopology, and every map is validated when it is read, so a game never starts on a broken map.
+ * Invalid files throw an IOException with the reason.
+ */
+public interface MapFormat {
+    /**
+     * Reads a map from a stream.
+     * @param inputStream The stream. It isn't closed.
+     * @return The topology of the map.
+     * @throws IOException If the stream can't be read or the map is invalid.
+     */
+    MapTopology read(InputStream inputStream) throws IOException;
+
+    /**
+     * Reads a map from a file.
+     * @param file The path of the file.
+     * @return The topology of the map.
+     * @throws IOException If the file can't be read or the map is invalid.
+     */
+    default MapTopology read(Path file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            return this.read(inputStream);
+        }
+    }
+
+    /**
+     * Writes a map to a stream.
+     * @param topology The topology of the map.
+     * @param outputStream The stream. It isn't closed.
+     * @throws IOException If the stream can't be written.
+     */
+    void write(MapTopology topology, OutputStream outputStream) throws IOException;
+
+    /**
+     * @param fileName The name of a map file.
+     * @return The format of the file, by its extension - JsonMapFormat for .json files and BinaryMapFormat for .rmap files.
+     */
+    static MapFormat forFileName(String fileName) {
+        if (fileName.endsWith(BinaryMapFormat.EXTENSION)) return new BinaryMapFormat();
+        if (fileName.endsWith(JsonMapFormat.EXTENSION)) return new JsonMapFormat();
+        throw new IllegalArgumentException("Unknown map format: " + fileName);
+    }
+
+    /**
+     * Checks the parts of a map every format has to keep: the neighbors of every country are other countries of the map,
+     * without repeats, and countries are neighbors of their neighbors.
+     * @param topology The topology of the map.
+     * @throws IOException If the map is invalid.
+     */
+    static void validate(MapTopology topology) throws IOException {
+        int numOfCountries = topology.getNumOfCountries();
+        if (numOfCountries == 0) throw new IOException("Invalid map: it doesn't have any countries");
+
+        for (int countryId = 0; countryId < numOfCountries; countryId++) {
+            int[] neighbors = topology.getNeighbors(countryId);
+            for (int i = 0; i < neighbors.length; i++) {
+                int neighborId = neighbors[i];
+                if (neighborId < 0 || neighborId >= numOfCountries || neighborId == countryId)
+                    throw new IOException("Invalid map: " + topology.getCountryName(countryId) + " has an invalid neighbor " + neighborId);
+                for (int j = 0; j < i; j++)
+                    if (neighbors[j] == neighborId)
+                        throw new IOException("Invalid map: " + topology.getCountryName(countryId) + " has the neighbor " + neighborId + " twice");
+                if (!topology.isNeighbor(neighborId, countryId))
+                    throw new IOException("Invalid map: " + topology.getCountryName(neighborId) + " isn't a neighbor of its neighbor " + topology.getCountryName(countryId));
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * A generator of random maps of any size, to test and benchmark the game on maps bigger than the classic one.
+ * The countries are random points in a square, and countries border their nearest countries - the shortest lines between points are kept
+ * until the countries have the average number of neighbors, so the map is close to planar, like a real map. All the countries are connected.
+ * The continents are grown together from random countries with a breadth-first search, so every continent is connected.
+ * The bonus of a continent is (countries + 2 * borders) / 3, which gives the bonuses of the classic map from its continents.
+ * The same seed always generates the same map. As a command line tool it writes the map in the format of the extension of the file:
+ * java MapGenerator 5000 65 4 map.rmap
+ */
+public class MapGenerator {
+    private static final int EXTRA_CANDIDATES = 2; // The number of nearest countries of every country that are candidates for neighbors, beyond the average number of neighbors.
+
+    private int numOfCountries; // The number of countries of the map.
+    private int numOfContinents; // The number of continents of the map.
+    private double averageDegree; // The average number of neighbors of a country.
+    private Random random; // The random generator of the map.
+
+    /**
+     * A constructor that sets object variables.
+     * @param numOfCountries The number of countries of the map.
+     * @param numOfContinents The number of continents of the map (at most the number of countries).
+     * @param averageDegree The average number of neighbors of a country. Maps always have enough borders to be connected.
+     * @param seed The seed of the random generator.
+     */
+    public MapGenerator(int numOfCountries, int numOfContinents, double averageDegree, long seed) {
+        if (numOfCountries < 1 || numOfContinents < 1 || numOfContinents > numOfCountries || averageDegree < 0)
+            throw new IllegalArgumentException("Can't generate " + numOfCountries + " countries in " + numOfContinents + " continents with " + averageDegree + " neighbors");
+        this.numOfCountries = numOfCountries;
+        this.numOfContinents = numOfContinents;
+        this.averageDegree = Math.min(averageDegree, numOfCountries - 1);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generates a map.
+     * @return The topology of the map.
+     */
+    public MapTopology generate() {
+        double[] xs = new double[this.numOfCountries], ys = new double[this.numOfCountries];
+        for (int countryId = 0; countryId < this.numOfCountries; countryId++) {
+            xs[countryId] = this.random.nextDouble();
+            ys[countryId] = this.random.nextDouble();
+        }
+
+        int[][] neighbors = this.createNeighbors(xs, ys);
+        int[] countryContinents = this.createContinents(neighbors);
+
+        String[] countryNames = new String[this.numOfCountries], continentNames = new String[this.numOfContinents];
+        for (int countryId = 0; countryId < this.numOfCountries; countryId++)
+            countryNames[countryId] = "Country " + (countryId + 1);
+        for (int continent = 0; continent < this.numOfContinents; continent++)
+            continentNames[continent] = "Continent " + (continent + 1);
+
+        int[] continentSizes = new int[this.numOfContinents], continentBorders = new int[this.numOfContinents];
+        for (int countryId = 0; countryId < this.numOfCountries; countryId++) {
+            int continent = countryContinents[countryId];
+            continentSizes[continent]++;
+            for (int neighborId : neighbors[countryId])
+                if (countryContinents[neighborId] != continent) {
+                    continentBorders[continent]++;
+                    break;
+                }
+        }
+        int[] continentBonuses = new int[this.numOfContinents];
+        for (int continent = 0; continent < this.numOfContinents; continent++)
+            continentBonuses[continent] = Math.max(1, (continentSizes[continent] + 2 * continentBorders[continent]) / 3);
+
+        return new MapTopology(countryNames, neighbors, countryContinents, continentNames, continentBonuses);
+    }
+
+    /**
+     * Creates the borders between the countries. The candidates are the lines from every country to its nearest countries.
+     * First the shortest candidates that connect separate parts of the map are kept (a minimum spanning tree), then the shortest of the rest,
+     * until the countries have the average number of neighbors. Parts the candidates don't connect are connected by their closest countries.
+     * @param xs The x coordinate of every country.
+     * @param ys The y coordinate of every country.
+     * @return The ids of the neighbors of every country.
+     */
+    private int[][] createNeighbors(double[] xs, double[] ys) {
+        int numOfCandidates = (int) Math.min(Math.ceil(this.averageDegree) + MapGenerator.EXTRA_CANDIDATES, this.numOfCountries - 1);
+        int[][] nearestCountries = findNearestCountries(xs, ys, numOfCandidates);
+
+        // Every line is a long - the smaller id times the number of countries plus the bigger id, without repeats.
+        long[] lines = new long[this.numOfCountries * numOfCandidates];
+        for (int countryId = 0; countryId < this.numOfCountries; countryId++)
+            for (int i = 0; i < numOfCandidates; i++) {
+                int nearestId = nearestCountries[countryId][i];
+                lines[countryId * numOfCandidates + i] = (long) Math.min(countryId, nearestId) * this.numOfCountries + Math.max(countryId, nearestId);
+            }
+        Arrays.sort(lines);
+        int numOfLines = 0;
+        for (int i = 0; i < lines.length; i++)
+            if (i == 0 || lines[i] != lines[i - 1]) lines[numOfLines++] = lines[i];
+
+        // The lines sorted by length - the float bits of the length (which keep the order of positive floats) and the index of the line.
+        long[] linesByLength = new long[numOfLines];
+        for (int i = 0; i < numOfLines; i++) {
+            int first = (int) (lines[i] / this.numOfCountries), second = (int) (lines[i] % this.numOfCountries);
+            float length = (float) Math.hypot(xs[first] - xs[second], ys[first] - ys[second]);
+            linesByLength[i] = (long) Float.floatToIntBits(length) << 32 | i;
+        }
+        Arrays.sort(linesByLength);
+
+        int[] components = new int[this.numOfCountries];
+        for (int countryId = 0; countryId < this.numOfCountries; countryId++)
+            components[countryId] = countryId;
+        boolean[] isBorder = new boolean[numOfLines];
+        int numOfBorders = 0, numOfParts = this.numOfCountries;
+        for (long line : linesByLength) {
+            int lineIndex = (int) line;
+            int first = (int) (lines[lineIndex] / this.numOfCountries), second = (int) (lines[lineIndex] % this.numOfCountries);
+            if (union(components, first, second)) {
+                isBorder[lineIndex] = true;
+                numOfBorders++;
+                numOfParts--;
+            }
+        }
+
+        long[] extraBorders = new long[numOfParts - 1];
+        for (int i = 0; i < extraBorders.length; i++) { // The nearest countries don't connect the map - connects another part to its closest country.
+            int countryId = this.findClosestCountryInOtherPart(xs, ys, components, find(components, 0));
+            int closestId = this.findClosestCountryInOtherPart(xs, ys, components, find(components, countryId));
+            extraBorders[i] = (long) Math.min(countryId, closestId) * this.numOfCountries + Math.max(countryId, closestId);
+            union(components, countryId, closestId);
+        }
+
+        int wantedBorders = (int) Math.round(this.numOfCountries * this.averageDegree / 2) - extraBorders.length;
+        for (int i = 0; i < linesByLength.length && numOfBorders < wantedBorders; i++) {
+            int lineIndex = (int) linesByLength[i];
+            if (!isBorder[lineIndex]) {
+                isBorder[lineIndex] = true;
+                numOfBorders++;
+            }
+        }
+
+        long[] borders = Arrays.copyOf(extraBorders, extraBorders.length + numOfBorders);
+        for (int lineIndex = 0, i = extraBorders.length; lineIndex < numOfLines; lineIndex++)
+            if (isBorder[lineIndex]) borders[i++] = lines[lineIndex];
+
+        int[] degrees = new int[this.numOfCountries];
+        for (long border : borders) {
+            degrees[(int) (border / this.numOfCountries)]++;
+            degrees[(int) (border % this.numOfCountries)]++;
+        }
+        int[][] neighbors = new int[this.numOfCountries][];
+        for (int countryId = 0; countryId < this.numOfCountries; countryId++)
+            neighbors[countryId] = new int[degrees[countryId]];
+        Arrays.fill(degrees, 0);
+        for (long border : borders) {
+            int first = (int) (border / this.numOfCountries), second = (int) (border % this.numOfCountries);
+            neighbors[first][degrees[first]++] = second;
+            neighbors[second][degrees[second]++] = first;
+        }
+        return neighbors;
+    }
+
+    /**
+     * Finds the nearest countries of every country. The countries are put in a grid of cells, and the cells around every country are searched
+     * in growing squares, until the next square can't have a nearer country.
+     * @param xs The x coordinate of every country.
+     * @param ys The y coordinate of every country.
+     * @param numOfNearest The number of nearest countries to find (less than the number of countries).
+     * @return The ids of the nearest countries of every country, from the nearest.
+     */
+    private static int[][] findNearestCountries(double[] xs, double[] ys, int numOfNearest) {
+        int numOfCountries = xs.length;
+        int gridSize = Math.max(1, (int) Math.sqrt(numOfCountries / 2.0)); // About 2 countries in a cell.
+        int[] cellStarts = new int[gridSize * gridSize + 1], cellCountries = new int[numOfCountries], countryCells = new int[numOfCountries];
+        for (int countryId = 0; countryId < numOfCountries; countryId++) {
+            countryCells[countryId] = getCell(ys[countryId], gridSize) * gridSize + getCell(xs[countryId], gridSize);
+            cellStarts[countryCells[countryId] + 1]++;
+        }
+        for (int cell = 0; cell < gridSize * gridSize; cell++)
+            cellStarts[cell + 1] += cellStarts[cell];
+        int[] cellIndexes = Arrays.copyOf(cellStarts, gridSize * gridSize);
+        for (int countryId = 0; countryId < numOfCountries; countryId++)
+            cellCountries[cellIndexes[countryCells[countryId]]++] = countryId;
+
+        int[][] nearestCountries = new int[numOfCountries][numOfNearest];
+        double[] nearestDistances = new double[numOfNearest];
+        for (int countryId = 0; countryId < numOfCountries; countryId++) {
+            int[] nearest = nearestCountries[countryId];
+            int numFound = 0, cellX = countryCells[countryId] % gridSize, cellY = countryCells[countryId] / gridSize;
+            for (int ring = 0; ring < gridSize; ring++) {
+                // Countries in farther rings are at least ring cells away.
+                if (numFound == numOfNearest && (numOfNearest == 0 || nearestDistances[numOfNearest - 1] <= Math.pow(Math.max(0, ring - 1), 2) / (gridSize * gridSize))) break;
+                for (int y = Math.max(0, cellY - ring); y <= Math.min(gridSize - 1, cellY + ring); y++)
+                    for (int x = Math.max(0, cellX - ring); x <= Math.min(gridSize - 1, cellX + ring); x++) {
+                        if (Math.max(Math.abs(x - cellX), Math.abs(y - cellY)) != ring) continue; // Only the cells on the square of this ring.
+                        for (int i = cellStarts[y * gridSize + x]; i < cellStarts[y * gridSize + x + 1]; i++) {
+                            int otherId = cellCountries[i];
+                            if (otherId == countryId) continue;
+                            double distance = Math.pow(xs[otherId] - xs[countryId], 2) + Math.pow(ys[otherId] - ys[countryId], 2);
+                            if (numFound == numOfNearest && distance >= nearestDistances[numOfNearest - 1]) continue;
+
+                            int position = numFound < numOfNearest ? numFound++ : numOfNearest - 1; // Insertion into the sorted nearest countries.
+                            while (position > 0 && nearestDistances[position - 1] > distance) {
+                                nearestDistances[position] = nearestDistances[position - 1];
+                                nearest[position] = nearest[position - 1];
+                                position--;
+                            }
+                            nearestDistances[position] = distance;
+                            nearest[position] = otherId;
+                        }
+                    }
+            }
+        }
+        return nearestCountries;
+    }
+
+    /**
+     * @param coordinate A coordinate between 0 and 1.
+     * @param gridSize The number of cells in a row of the grid.
+     * @return The index of the cell of the coordinate in its row or column.
+     */
+    private static int getCell(double coordinate, int gridSize) {
+        return Math.min(gridSize - 1, (int) (coordinate * gridSize));
+    }
+
+    /**
+     * @param xs The x coordinate of every country.
+     * @param ys The y coordinate of every country.
+     * @param components The union-find forest of the connected parts of the map.
+     * @param part The root of a part of the map.
+     * @return The country outside the part that is closest to a country in it.
+     */
+    private int findClosestCountryInOtherPart(double[] xs, double[] ys, int[] components, int part) {
+        int closestId = -1;
+        double closestDistance = Double.MAX_VALUE;
+        for (int countryId = 0; countryId < this.numOfCountries; countryId++)
+            if (find(components, countryId) == part)
+                for (int otherId = 0; otherId < this.numOfCountries; otherId++) {
+                    double distance = Math.pow(xs[otherId] - xs[countryId], 2) + Math.pow(ys[otherId] - ys[countryId], 2);
+                    if (distance < closestDistance && find(components, otherId) != part) {
+                        closestId = otherId;
+                        closestDistance = distance;
+                    }
+                }
+        return closestId;
+    }
+
+    /**
+     * @param components A union-find forest (the parent of every element).
+     * @param element An element.
+     * @return The root of the tree of the element. The path to it is halved on the way.
+     */
+    private static int find(int[] components, int element) {
+        while (components[element] != element) {
+            components[element] = components[components[element]];
+            element = components[element];
+        }
+        return element;
+    }
+
+    /**
+     * Joins the trees of two elements in a union-find forest.
+     * @param components A union-find forest (the parent of every element).
+     * @return Whether the elements were in different trees.
+     */
+    private static boolean union(int[] components, int first, int second) {
+        int firstRoot = find(components, first), secondRoot = find(components, second);
+        if (firstRoot == secondRoot) return false;
+        components[firstRoot] = secondRoot;
+        return true;
+    }
+
+    /**
+     * Grows the continents together from random different countries, a breadth-first search from all of them at once,
+     * so every country joins the continent that reaches it first and the continents are connected.
+     * @param neighbors The ids of the neighbors of every country. The map is connected.
+     * @return The index of the continent of every country.
+     */
+    private int[] createContinents(int[][] neighbors) {
+        int[] countryContinents = new int[this.numOfCountries];
+        Arrays.fill(countryContinents, -1);
+        Queue<Integer> frontier = new ArrayDeque<>();
+        for (int continent = 0; continent < this.numOfContinents; continent++) {
+            int seedId;
+            do seedId = this.random.nextInt(this.numOfCountries);
+            while (countryContinents[seedId] != -1);
+            countryContinents[seedId] = continent;
+            frontier.add(seedId);
+        }
+
+        while (!frontier.isEmpty()) {
+            int countryId = frontier.poll();
+            for (int neighborId : neighbors[countryId])
+                if (countryContinents[neighborId] == -1) {
+                    countryContinents[neighborId] = countryContinents[countryId];
+                    frontier.add(neighborId);
+                }
+        }
+        return countryContinents;
+    }
+
+    /**
+     * Generates a map and writes it to a file.
+     * @param args The number of countries, the number of continents, the average number of neighbors, the path of the map file (.json or .rmap)
+     *             and optionally the seed.
+     * @throws IOException If the file can't be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4 && args.length != 5) {
+            System.out.println("Usage: java MapGenerator <countries> <continents> <average neighbors> <output map> [seed]");
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        long seed = args.length == 5 ? Long.parseLong(args[4]) : System.nanoTime();
+        MapTopology topology = new MapGenerator(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Double.parseDouble(args[2]), seed).generate();
+        MapFormat.validate(topology);
+        System.out.println("Generated " + topology.getNumOfCountries() + " countries and " + topology.getNumOfContinents() + " continents (seed " + seed + ") in "
+                + (System.nanoTime() - startTime) / 1000000 + " ms");
+
+        Path outputFile = Paths.get(args[3]);
+        try (OutputStream outputStream = Files.newOutputStream(outputFile)) {
+            MapFormat.forFileName(args[3]).write(topology, outputStream);
+        }
+        System.out.println("Wrote " + outputFile + " (" + Files.size(outputFile) + " bytes)");
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An immutable, compact representation of the static parts of a map (read from a map file by a MapFormat) - the neighbors of every country, the continents and their bonuses.
+ * Everything is kept in primitive arrays indexed by country id and continent index, so it can be shared by any number of games and game states.
+ * Neighbors are checked in O(1) with a neighbor set for every country, computed once when the map is loaded. On maps that are too big for the sets
+ * they are checked with a binary search in a sorted copy of the neighbors of the country.
+ */
+public class MapTopology {
+    private final String[] countryNames; // The name of every country.
+    private final int[][] neighbors; // The ids of the neighbors of every country.
+    private final int[] countryContinents; // The index of the continent of every country.
+    private final String[] continentNames; // The name of every continent.
+    private final int[] continentBonuses; // The troops bonus of every continent.
+    private final int[][] continentCountries; // The ids of the countries in every continent.
+    private static final int MAX_NEIGHBOR_SET_COUNTRIES = 1 << 13; // The maximum number of countries of a map with neighbor sets (about 8 MB of sets at most).
+
+    private final BitSet[] neighborSets; // A set of the ids of the neighbors of every country, or null if the map is too big for them.
+    private final int[][] sortedNeighbors; // The ids of the neighbors of every country in ascending order, or null if there are neighbor sets.
+    private final long[][] continentMasks; // A bit mask of the countries in every continent (bit i of word i / 64 is country i).
+
+    /**
+     * A constructor that sets object variables and calculates the continent masks and the neighbor sets (or sorted neighbors).
+     * The arrays shouldn't be changed after this.
+     */
+    public MapTopology(String[] countryNames, int[][] neighbors, int[] countryContinents, String[] continentNames, int[] continentBonuses) {
+        this.countryNames = countryNames;
+        this.neighbors = neighbors;
+        this.countryContinents = countryContinents;
+        this.continentNames = continentNames;
+        this.continentBonuses = continentBonuses;
+
+        if (neighbors.length <= MapTopology.MAX_NEIGHBOR_SET_COUNTRIES) {
+            this.neighborSets = new BitSet[neighbors.length];
+            this.sortedNeighbors = null;
+            for (int countryId = 0; countryId < neighbors.length; countryId++) {
+                this.neighborSets[countryId] = new BitSet();
+                for (int neighborId : neighbors[countryId])
+                    if (neighborId >= 0 && neighborId < neighbors.length) this.neighborSets[countryId].set(neighborId); // Invalid ids are reported by MapFormat.validate.
+            }
+        } else {
+            this.neighborSets = null;
+            this.sortedNeighbors = new int[neighbors.length][];
+            for (int countryId = 0; countryId < neighbors.length; countryId++) {
+                this.sortedNeighbors[countryId] = neighbors[countryId].clone(); // The order of the neighbors is kept, since the searches break ties by it.
+                Arrays.sort(this.sortedNeighbors[countryId]);
+            }
+        }
+
+        int[] continentSizes = new int[continentNames.length];
+        for (int continent : countryContinents)
+            continentSizes[continent]++;
+
+        this.continentCountries = new int[continentNames.length][];
+        this.continentMasks = new long[continentNames.length][getNumOfMaskWords(countryNames.length)];
+        for (int continent = 0; continent < continentNames.length; continent++)
+            this.continentCountries[continent] = new int[continentSizes[continent]];
+        int[] continentIndexes = new int[continentNames.length];
+        for (int countryId = 0; countryId < countryContinents.length; countryId++) {
+            int continent = countryContinents[countryId];
+            this.continentCountries[continent][continentIndexes[continent]++] = countryId;
+            this.continentMasks[continent][countryId >>> 6] |= 1L << countryId;
+        }
+    }
+
+    /**
+     * @param numOfCountries The number of countries on a map.
+     * @return The number of longs in a bit mask of the countries.
+     */
+    public static int getNumOfMaskWords(int numOfCountries) {
+        return (numOfCountries + 63) >>> 6;
+    }
+
+    public int getNumOfCountries() {
+        return this.neighbors.length;
+    }
+
+    public int getNumOfContinents() {
+        return this.continentNames.length;
+    }
+
+    public String getCountryName(int countryId) {
+        return this.countryNames[countryId];
+    }
+
+    /**
+     * @param countryId A country id.
+     * @return The ids of the neighbors of the country. Shouldn't be modified.
+     */
+    public int[] getNeighbors(int countryId) {
+        return this.neighbors[countryId];
+    }
+
+    /**
+     * @param countryId A country id.
+     * @param otherCountryId Another country id.
+     * @return Whether the countries are neighbors. O(1) with the neighbor sets, and a binary search in the sorted neighbors on big maps.
+     */
+    public boolean isNeighbor(int countryId, int otherCountryId) {
+        if (this.neighborSets != null) return this.neighborSets[countryId].get(otherCountryId);
+        return Arrays.binarySearch(this.sortedNeighbors[countryId], otherCountryId) >= 0;
+    }
+
+    public int getContinent(int countryId) {
+        return this.countryContinents[countryId];
+    }
+
+    public String getContinentName(int continent) {
+        return this.continentNames[continent];
+    }
+
+    public int getContinentBonus(int continent) {
+        return this.continentBonuses[continent];
+    }
+
+    /**
+     * @param continent A continent index.
+     * @return The ids of the countries in the continent. Shouldn't be modified.
+     */
+    public int[] getContinentCountries(int continent) {
+        return this.continentCountries[continent];
+    }
+
+    /**
+     * @param continent A continent index.
+     * @return A bit mask of the countries in the continent. Shouldn't be modified.
+     */
+    public long[] getContinentMask(int continent) {
+        return this.continentMasks[continent];
+    }
+}
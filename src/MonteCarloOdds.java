@@ -0,0 +1,91 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A parallel implementation of the monte carlo algorithm, for battles that are too big for the exact table of BattleOdds.
+ * The simulations are run in batches that are split across a fork-join pool, and every part of a batch has its own random generator.
+ * After every batch the confidence interval is checked, and the simulations stop as soon as it is tight enough,
+ * or as soon as the whole interval is on one side of the threshold the caller is interested in.
+ */
+public class MonteCarloOdds {
+    private static final int BATCH_SIZE = 2048; // The number of simulations that are run before checking the confidence interval.
+    private static final int SIMULATIONS_PER_TASK = 128; // The number of simulations under which a task isn't split anymore.
+    private static final int MAX_SIMULATIONS = 100000; // The maximum number of simulations for a single estimate.
+    private static final double Z_SCORE = 2.576; // The z score of the confidence interval (99%).
+
+    /**
+     * A task that runs a number of simulations and counts the wins of the attacker. Splits itself in two if it has too many simulations.
+     */
+    private static class SimulationTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L; // The version of the serialized form. Tasks are never serialized, but fork-join tasks are serializable.
+
+        private final int numOfAttackingTroops; // The number of troops on the attacking country.
+        private final int numOfDefendingTroops; // The number of troops on the defending country.
+        private final int numOfSimulations; // The number of simulations to run.
+        private final SplittableRandom random; // The random generator of the task, not shared with any other task.
+
+        /**
+         * A constructor that sets object variables.
+         */
+        private SimulationTask(int numOfAttackingTroops, int numOfDefendingTroops, int numOfSimulations, SplittableRandom random) {
+            this.numOfAttackingTroops = numOfAttackingTroops;
+            this.numOfDefendingTroops = numOfDefendingTroops;
+            this.numOfSimulations = numOfSimulations;
+            this.random = random;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (this.numOfSimulations <= MonteCarloOdds.SIMULATIONS_PER_TASK) {
+                BattleResolver resolver = new BattleResolver(this.random);
+                int countAttackWins = 0;
+                for (int i = 0; i < this.numOfSimulations; i++)
+                    if (BattleResolver.getRemainingDefenders(resolver.resolve(this.numOfAttackingTroops, this.numOfDefendingTroops)) == 0)
+                        countAttackWins++;
+                return countAttackWins;
+            }
+
+            int half = this.numOfSimulations / 2;
+            SimulationTask first = new SimulationTask(this.numOfAttackingTroops, this.numOfDefendingTroops, half, this.random.split());
+            SimulationTask second = new SimulationTask(this.numOfAttackingTroops, this.numOfDefendingTroops, this.numOfSimulations - half, this.random);
+            first.fork();
+            return second.compute() + first.join();
+        }
+    }
+
+    /**
+     * Calculates the half width of the confidence interval, using the adjusted (Agresti-Coull) estimate so that
+     * the interval isn't empty when all the simulations had the same result.
+     * @param countAttackWins The number of simulations the attacker won.
+     * @param numOfSimulations The number of simulations.
+     * @return The half width of the confidence interval.
+     */
+    private static double getErrorBound(int countAttackWins, int numOfSimulations) {
+        double adjustedProbability = (countAttackWins + 2.0) / (numOfSimulations + 4);
+        return MonteCarloOdds.Z_SCORE * Math.sqrt(adjustedProbability * (1 - adjustedProbability) / (numOfSimulations + 4));
+    }
+
+    /**
+     * Estimates the probability of the attacker winning a battle.
+     * @param numOfAttackingTroops The number of troops on the attacking country.
+     * @param numOfDefendingTroops The number of troops on the defending country.
+     * @param targetErrorBound The simulations stop when the half width of the confidence interval is at most this.
+     * @param threshold The simulations stop when the confidence interval is fully above or below this. NaN if there is no threshold.
+     * @return The estimate of the probability, with its error bound.
+     */
+    public static OddsEstimate estimate(int numOfAttackingTroops, int numOfDefendingTroops, double targetErrorBound, double threshold) {
+        SplittableRandom random = BattleResolver.current().split();
+        int countAttackWins = 0, numOfSimulations = 0;
+        OddsEstimate estimate;
+        do {
+            SimulationTask batch = new SimulationTask(numOfAttackingTroops, numOfDefendingTroops, MonteCarloOdds.BATCH_SIZE, random.split());
+            countAttackWins += ForkJoinPool.commonPool().invoke(batch);
+            numOfSimulations += MonteCarloOdds.BATCH_SIZE;
+            estimate = new OddsEstimate((double) countAttackWins / numOfSimulations, getErrorBound(countAttackWins, numOfSimulations), numOfSimulations);
+        } while (estimate.getErrorBound() > targetErrorBound && numOfSimulations < MonteCarloOdds.MAX_SIMULATIONS
+                && (Double.isNaN(threshold) || !(estimate.isClearlyAbove(threshold) || estimate.isClearlyBelow(threshold))));
+
+        return estimate;
+    }
+}
@@ -0,0 +1,209 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe, bounded cache of battle probabilities.
+ * The keys are primitive longs with the number of attacking and defending troops packed in them, so lookups don't allocate objects.
+ * The cache is split into segments (each with its own lock), and every segment is an open-addressing table where a key
+ * can only be in a short window of slots. When the window is full, an entry is evicted according to the eviction policy.
+ */
+public class OddsCache {
+    /**
+     * The policies for choosing which entry to evict when there is no room for a new one.
+     */
+    public enum EvictionPolicy {
+        LEAST_RECENTLY_USED, // Evict the entry that was read or written the longest time ago.
+        FIRST_IN_FIRST_OUT // Evict the entry that was written the longest time ago.
+    }
+
+    private static final int NUM_OF_SEGMENTS = 16; // The number of segments the cache is split into. Must be a power of 2.
+    private static final int PROBE_LENGTH = 8; // The number of slots a key can be in, starting from the slot of its hash.
+    private static final long EMPTY_KEY = -1; // The key of empty slots. Can't be a real key, because the number of troops isn't negative.
+
+    private final Segment[] segments; // The segments of the cache.
+    private final EvictionPolicy evictionPolicy; // The policy for choosing which entry to evict.
+    private final LongAdder hits = new LongAdder(); // The number of lookups that found the key.
+    private final LongAdder misses = new LongAdder(); // The number of lookups that didn't find the key.
+    private final LongAdder evictions = new LongAdder(); // The number of entries that were evicted to make room for new ones.
+
+    /**
+     * A segment of the cache. All the functions are synchronized on the segment.
+     */
+    private static class Segment {
+        private final long[] keys; // The keys in the slots of the segment.
+        private final float[] values; // The values in the slots of the segment.
+        private final long[] stamps; // The time every slot was last used (according to the eviction policy), for choosing which to evict.
+        private long clock; // A counter used as the time for the stamps.
+        private int size; // The number of full slots.
+
+        /**
+         * A constructor that creates an empty segment.
+         * @param capacity The number of slots in the segment. Must be a power of 2.
+         */
+        private Segment(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new float[capacity];
+            this.stamps = new long[capacity];
+            Arrays.fill(this.keys, OddsCache.EMPTY_KEY);
+        }
+    }
+
+    /**
+     * A constructor that creates an empty cache.
+     * @param capacity The maximum number of entries in the cache (rounded up so every segment has a power of 2 slots).
+     * @param evictionPolicy The policy for choosing which entry to evict.
+     */
+    public OddsCache(int capacity, EvictionPolicy evictionPolicy) {
+        int segmentCapacity = Integer.highestOneBit(Math.max(capacity / OddsCache.NUM_OF_SEGMENTS - 1, OddsCache.PROBE_LENGTH - 1)) << 1;
+        this.segments = new Segment[OddsCache.NUM_OF_SEGMENTS];
+        for (int i = 0; i < this.segments.length; i++)
+            this.segments[i] = new Segment(segmentCapacity);
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    /**
+     * @param numOfAttackingTroops The number of troops on the attacking country.
+     * @param numOfDefendingTroops The number of troops on the defending country.
+     * @return The key of the battle in the cache.
+     */
+    public static long getKey(int numOfAttackingTroops, int numOfDefendingTroops) {
+        return ((long) numOfAttackingTroops << 32) | (numOfDefendingTroops & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Mixes the bits of the key, so that keys of close battles are spread over the segments and slots.
+     * @param key A key.
+     * @return The hash of the key.
+     */
+    private static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    /**
+     * @param hash The hash of a key.
+     * @return The segment of the key. Uses the high bits of the hash, so the low bits are left for the slot.
+     */
+    private Segment getSegment(long hash) {
+        return this.segments[(int) (hash >>> 60) & (OddsCache.NUM_OF_SEGMENTS - 1)];
+    }
+
+    /**
+     * Looks up a value in the cache.
+     * @param key The key of the battle (from getKey).
+     * @return The cached value, or NaN if the key isn't in the cache.
+     */
+    public float get(long key) {
+        long hash = hash(key);
+        Segment segment = this.getSegment(hash);
+        synchronized (segment) {
+            int mask = segment.keys.length - 1;
+            for (int i = 0; i < OddsCache.PROBE_LENGTH; i++) {
+                int slot = ((int) hash + i) & mask;
+                if (segment.keys[slot] == key) {
+                    if (this.evictionPolicy == EvictionPolicy.LEAST_RECENTLY_USED)
+                        segment.stamps[slot] = ++segment.clock;
+                    this.hits.increment();
+                    return segment.values[slot];
+                }
+                if (segment.keys[slot] == OddsCache.EMPTY_KEY) break; // Slots are never emptied, so the key can't be further.
+            }
+        }
+
+        this.misses.increment();
+        return Float.NaN;
+    }
+
+    /**
+     * Adds a value to the cache, or replaces the value of a key that is already in the cache.
+     * If all the slots the key can be in are full, the one chosen by the eviction policy is replaced.
+     * @param key The key of the battle (from getKey).
+     * @param value The value to cache.
+     */
+    public void put(long key, float value) {
+        long hash = hash(key);
+        Segment segment = this.getSegment(hash);
+        synchronized (segment) {
+            int mask = segment.keys.length - 1, slotToUse = -1;
+            for (int i = 0; i < OddsCache.PROBE_LENGTH; i++) {
+                int slot = ((int) hash + i) & mask;
+                if (segment.keys[slot] == key || segment.keys[slot] == OddsCache.EMPTY_KEY) {
+                    slotToUse = slot;
+                    break;
+                }
+                if (slotToUse == -1 || segment.stamps[slot] < segment.stamps[slotToUse])
+                    slotToUse = slot;
+            }
+
+            if (segment.keys[slotToUse] == OddsCache.EMPTY_KEY) segment.size++;
+            else if (segment.keys[slotToUse] != key) this.evictions.increment();
+
+            segment.keys[slotToUse] = key;
+            segment.values[slotToUse] = value;
+            segment.stamps[slotToUse] = ++segment.clock;
+        }
+    }
+
+    /**
+     * Removes all the entries from the cache. The statistics are kept.
+     */
+    public void clear() {
+        for (Segment segment : this.segments)
+            synchronized (segment) {
+                Arrays.fill(segment.keys, OddsCache.EMPTY_KEY);
+                segment.size = 0;
+            }
+    }
+
+    /**
+     * @return The number of entries in the cache.
+     */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : this.segments)
+            synchronized (segment) {
+                size += segment.size;
+            }
+        return size;
+    }
+
+    /**
+     * @return The maximum number of entries in the cache.
+     */
+    public int getCapacity() {
+        return this.segments.length * this.segments[0].keys.length;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return this.evictionPolicy;
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return The part of the lookups that found the key (0 if there weren't any lookups).
+     */
+    public double getHitRate() {
+        long hits = this.getHitCount(), lookups = hits + this.getMissCount();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "OddsCache{size=" + this.getSize() + "/" + this.getCapacity() + ", policy=" + this.evictionPolicy + ", hits=" + this.getHitCount()
+                + ", misses=" + this.getMissCount() + ", evictions=" + this.getEvictionCount() + ", hitRate=" + this.getHitRate() + "}";
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * A class representing an estimate of the probability of the attacker winning a battle.
+ */
+public class OddsEstimate {
+    private final double probability; // The estimated probability.
+    private final double errorBound; // The half width of the confidence interval of the estimate (0 if the probability is exact).
+    private final int numOfSimulations; // The number of simulations the estimate is based on (0 if the probability is exact).
+
+    /**
+     * A constructor that sets object variables.
+     */
+    public OddsEstimate(double probability, double errorBound, int numOfSimulations) {
+        this.probability = probability;
+        this.errorBound = errorBound;
+        this.numOfSimulations = numOfSimulations;
+    }
+
+    public double getProbability() {
+        return this.probability;
+    }
+
+    public double getErrorBound() {
+        return this.errorBound;
+    }
+
+    public int getNumOfSimulations() {
+        return this.numOfSimulations;
+    }
+
+    /**
+     * @param threshold A probability.
+     * @return Whether the whole confidence interval is above the threshold.
+     */
+    public boolean isClearlyAbove(double threshold) {
+        return this.probability - this.errorBound > threshold;
+    }
+
+    /**
+     * @param threshold A probability.
+     * @return Whether the whole confidence interval is below the threshold.
+     */
+    public boolean isClearlyBelow(double threshold) {
+        return this.probability + this.errorBound < threshold;
+    }
+
+    @Override
+    public String toString() {
+        return this.probability + " +- " + this.errorBound + " (" + this.numOfSimulations + " simulations)";
+    }
+}
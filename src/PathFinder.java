@@ -0,0 +1,360 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A class that finds the shortest attack paths between countries with the dijkstra algorithm, without allocating objects for every search.
+ * The distances and previous countries are kept in int arrays indexed by country id, the next country is chosen with an indexed binary heap,
+ * and the graph of connected rival countries is built with an iterative (not recursive) depth first search.
+ * Every thread has its own path finder, which is reused by all the searches of the thread.
+ *
+ * The distance of a path is the number of troops on the countries in it (not including the first).
+ * The path can only go through countries that aren't controlled by the owner of the first country.
+ * Countries with the same distance are taken in the same order the old HashMap based implementation took them,
+ * so the paths that are found are exactly the same.
+ */
+public class PathFinder {
+    public static final int NO_COUNTRY = -1; // The previous country of the source, and of countries that weren't reached.
+    private static final ThreadLocal<PathFinder> THREAD_PATH_FINDER = ThreadLocal.withInitial(PathFinder::new); // The path finder of every thread.
+
+    private int[] distances = new int[0]; // The distance of every country from the source.
+    private int[] previousCountries = new int[0]; // The country before every country in its shortest path.
+    private int[] graphSearchIds = new int[0]; // The id of the last search every country was in the graph of. Saves clearing the arrays for every search.
+    private int[] insertionOrders = new int[0]; // The order in which the countries were added to the graph, used for breaking ties.
+    private int[] heap = new int[0]; // A binary heap of the countries that were reached and weren't taken yet.
+    private int[] heapIndexes = new int[0]; // The index of every country in the heap (-1 if it isn't in the heap).
+    private int[] stack = new int[0]; // The stack of the depth first search that builds the graph.
+    private int[] neighborIndexes = new int[0]; // The index of the next neighbor to check for every country in the stack.
+    private int[] targetRanks = new int[0]; // The index of every target in the list of targets of the current search (of the closest target in a reverse search).
+    private int[] targetSearchIds = new int[0]; // The id of the last search every country was a target of.
+    private int heapSize; // The number of countries in the heap.
+    private int tieBreakMask; // The mask of the buckets of the old HashMap, used for breaking ties.
+    private int searchId; // The id of the current search.
+
+    /**
+     * @return The path finder of the current thread.
+     */
+    public static PathFinder forCurrentThread() {
+        return PathFinder.THREAD_PATH_FINDER.get();
+    }
+
+    /**
+     * Makes sure the arrays are big enough for the map.
+     * @param numOfCountries The number of countries on the map.
+     */
+    private void ensureCapacity(int numOfCountries) {
+        if (this.distances.length >= numOfCountries) return;
+
+        this.distances = new int[numOfCountries];
+        this.previousCountries = new int[numOfCountries];
+        this.graphSearchIds = new int[numOfCountries];
+        this.insertionOrders = new int[numOfCountries];
+        this.heap = new int[numOfCountries];
+        this.heapIndexes = new int[numOfCountries];
+        this.stack = new int[numOfCountries];
+        this.neighborIndexes = new int[numOfCountries];
+        this.targetRanks = new int[numOfCountries];
+        this.targetSearchIds = new int[numOfCountries];
+        this.searchId = 0;
+    }
+
+    /**
+     * @param countryId A country id.
+     * @return Whether the country is in the graph of the last search.
+     */
+    public boolean isInGraph(int countryId) {
+        return this.graphSearchIds[countryId] == this.searchId;
+    }
+
+    /**
+     * @param countryId A country id.
+     * @return The distance of the country from the source in the last search, or Integer.MAX_VALUE if it wasn't reached.
+     */
+    public int getDistance(int countryId) {
+        return this.isInGraph(countryId) ? this.distances[countryId] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param countryId A country id.
+     * @return The country before the country in its shortest path in the last search, or NO_COUNTRY.
+     */
+    public int getPreviousCountry(int countryId) {
+        return this.isInGraph(countryId) ? this.previousCountries[countryId] : PathFinder.NO_COUNTRY;
+    }
+
+    /**
+     * Adds a country to the graph.
+     * @param countryId The id of the country.
+     * @param insertionOrder The number of countries that were added to the graph before it.
+     */
+    private void addToGraph(int countryId, int insertionOrder) {
+        this.graphSearchIds[countryId] = this.searchId;
+        this.insertionOrders[countryId] = insertionOrder;
+        this.distances[countryId] = Integer.MAX_VALUE;
+        this.previousCountries[countryId] = PathFinder.NO_COUNTRY;
+        this.heapIndexes[countryId] = -1;
+    }
+
+    /**
+     * Changes the id of the search, so that the marks of the previous search are ignored.
+     */
+    private void startNewSearch() {
+        if (++this.searchId == 0) { // The ids wrapped around, so old marks could look like marks of the current search.
+            Arrays.fill(this.graphSearchIds, -1);
+            Arrays.fill(this.targetSearchIds, -1);
+            this.searchId = 1;
+        }
+    }
+
+    /**
+     * Builds the graph of the search - the source and all the countries that are controlled by rival players and are connected to it.
+     * The countries are added in the same order as a recursive depth first search, using an explicit stack.
+     * @param source The first country.
+     * @param countries The array of countries.
+     */
+    private void buildGraph(Country source, Country[] countries) {
+        this.startNewSearch();
+
+        Player attacker = source.getOwner();
+        int graphSize = 0, stackSize = 0;
+        this.addToGraph(source.getId(), graphSize++);
+        this.stack[stackSize++] = source.getId();
+        this.neighborIndexes[source.getId()] = 0;
+        while (stackSize > 0) {
+            int countryId = this.stack[stackSize - 1];
+            int[] neighbors = countries[countryId].getNeighbors();
+            if (this.neighborIndexes[countryId] == neighbors.length) {
+                stackSize--;
+                continue;
+            }
+
+            int neighborId = neighbors[this.neighborIndexes[countryId]++];
+            if (!this.isInGraph(neighborId) && countries[neighborId].getOwner() != attacker) {
+                this.addToGraph(neighborId, graphSize++);
+                this.stack[stackSize++] = neighborId;
+                this.neighborIndexes[neighborId] = 0;
+            }
+        }
+
+        int hashMapCapacity = 16;
+        while (graphSize > hashMapCapacity * 3 / 4) hashMapCapacity <<= 1;
+        this.tieBreakMask = hashMapCapacity - 1;
+    }
+
+    /**
+     * Runs the dijkstra algorithm from the source. Stops when the target is taken from the heap.
+     * The results can be read with getDistance and getPreviousCountry.
+     * @param source The first country of the paths.
+     * @param target The country to find, or null to find the paths to all the countries in the graph.
+     * @param countries The array of countries.
+     * @return Whether the target was reached (always true if there is no target).
+     */
+    public boolean search(Country source, Country target, Country[] countries) {
+        this.ensureCapacity(countries.length);
+        this.buildGraph(source, countries);
+        if (target != null && !this.isInGraph(target.getId())) return false;
+
+        this.heapSize = 0;
+        this.distances[source.getId()] = 0;
+        this.push(source.getId());
+        while (this.heapSize > 0) {
+            int countryId = this.pop();
+            if (target != null && countryId == target.getId()) return true;
+
+            this.relaxNeighbors(countryId, countries);
+        }
+
+        return target == null;
+    }
+
+    /**
+     * Updates the distances of the neighbors of a country that was taken from the heap, if the path through it is shorter.
+     * @param countryId The id of the country.
+     * @param countries The array of countries.
+     */
+    private void relaxNeighbors(int countryId, Country[] countries) {
+        for (int neighborId : countries[countryId].getNeighbors()) {
+            if (!this.isInGraph(neighborId)) continue;
+            int distance = this.distances[countryId] + countries[neighborId].getNumOfTroops();
+            if (distance < this.distances[neighborId]) {
+                this.distances[neighborId] = distance;
+                this.previousCountries[neighborId] = countryId;
+                if (this.heapIndexes[neighborId] == -1) this.push(neighborId);
+                else this.siftUp(this.heapIndexes[neighborId]);
+            }
+        }
+    }
+
+    /**
+     * Finds the closest of a list of targets with a single search, that stops as soon as the closest target is known.
+     * Targets with the same distance are chosen by their order in the list, like searching for every target separately would.
+     * @param source The first country of the paths.
+     * @param targets The countries to find, in order of preference.
+     * @param countries The array of countries.
+     * @return The index (in targets) of the closest target, or -1 if none of them can be reached. Its distance can be read with getDistance.
+     */
+    public int searchClosest(Country source, List<Country> targets, Country[] countries) {
+        this.ensureCapacity(countries.length);
+        this.buildGraph(source, countries);
+        int numOfReachableTargets = 0;
+        for (int i = targets.size() - 1; i >= 0; i--) { // Backwards, so that a country that appears twice keeps its first index.
+            int targetId = targets.get(i).getId();
+            if (this.isInGraph(targetId)) {
+                this.targetSearchIds[targetId] = this.searchId;
+                this.targetRanks[targetId] = i;
+                numOfReachableTargets++;
+            }
+        }
+        if (numOfReachableTargets == 0) return -1;
+
+        this.heapSize = 0;
+        this.distances[source.getId()] = 0;
+        this.push(source.getId());
+        int closestTargetId = PathFinder.NO_COUNTRY;
+        while (this.heapSize > 0) {
+            if (closestTargetId != PathFinder.NO_COUNTRY && this.distances[this.heap[0]] > this.distances[closestTargetId]) break;
+
+            int countryId = this.pop();
+            if (this.targetSearchIds[countryId] == this.searchId
+                    && (closestTargetId == PathFinder.NO_COUNTRY || this.targetRanks[countryId] < this.targetRanks[closestTargetId]))
+                closestTargetId = countryId;
+            this.relaxNeighbors(countryId, countries);
+        }
+
+        return this.targetRanks[closestTargetId];
+    }
+
+    /**
+     * Finds the distance from every country of a player to the closest of a list of targets, with a single reverse search from all the targets.
+     * The distances and closest targets are the same as calling searchClosest from every country of the player separately
+     * (the paths only go through countries of other players, and targets with the same distance are chosen by their order in the list).
+     * @param player The player whose countries are the sources.
+     * @param targets The countries to find, in order of preference.
+     * @param countries The array of countries.
+     * @param result An array (the size of countries) that gets the distance of every country of the player,
+     *               0 for targets controlled by the player and Integer.MAX_VALUE if none of the targets can be reached.
+     * @param closestTargets An array (the size of countries) that gets the index (in targets) of the closest target of every country of the player,
+     *                       the index of the target itself for targets controlled by the player and -1 if none of the targets can be reached.
+     */
+    public void searchFromPlayerToTargets(Player player, List<Country> targets, Country[] countries, int[] result, int[] closestTargets) {
+        this.ensureCapacity(countries.length);
+        this.startNewSearch();
+        this.heapSize = 0;
+        this.tieBreakMask = -1;
+        Arrays.fill(result, Integer.MAX_VALUE);
+        Arrays.fill(closestTargets, -1);
+
+        int graphSize = 0;
+        for (int i = 0; i < targets.size(); i++) {
+            Country target = targets.get(i);
+            int targetId = target.getId();
+            if (target.getOwner() == player) {
+                if (result[targetId] != 0) {
+                    result[targetId] = 0;
+                    closestTargets[targetId] = i;
+                }
+            } else if (!this.isInGraph(targetId)) {
+                this.addToGraph(targetId, graphSize++);
+                this.distances[targetId] = target.getNumOfTroops();
+                this.targetRanks[targetId] = i;
+                this.push(targetId);
+            }
+        }
+
+        while (this.heapSize > 0) {
+            int countryId = this.pop();
+            int targetRank = this.targetRanks[countryId]; // The index of the closest target of the country, carried along its paths.
+            for (int neighborId : countries[countryId].getNeighbors()) {
+                Country neighbor = countries[neighborId];
+                if (neighbor.getOwner() == player) {
+                    int distance = this.distances[countryId];
+                    if (distance < result[neighborId] || distance == result[neighborId] && targetRank < closestTargets[neighborId]) {
+                        result[neighborId] = distance;
+                        closestTargets[neighborId] = targetRank;
+                    }
+                    continue;
+                }
+
+                if (!this.isInGraph(neighborId)) this.addToGraph(neighborId, graphSize++);
+                int distance = this.distances[countryId] + neighbor.getNumOfTroops();
+                if (distance < this.distances[neighborId] || distance == this.distances[neighborId] && targetRank < this.targetRanks[neighborId]) {
+                    this.distances[neighborId] = distance;
+                    this.targetRanks[neighborId] = targetRank;
+                    this.previousCountries[neighborId] = countryId;
+                    if (this.heapIndexes[neighborId] == -1) this.push(neighborId);
+                    else this.siftUp(this.heapIndexes[neighborId]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares two countries in the heap. Countries with the same distance are ordered like in the old HashMap - by bucket and then by insertion order.
+     * @return Whether the first country should be taken before the second.
+     */
+    private boolean isBefore(int firstId, int secondId) {
+        if (this.distances[firstId] != this.distances[secondId])
+            return this.distances[firstId] < this.distances[secondId];
+
+        int firstBucket = (firstId ^ (firstId >>> 16)) & this.tieBreakMask, secondBucket = (secondId ^ (secondId >>> 16)) & this.tieBreakMask;
+        if (firstBucket != secondBucket) return firstBucket < secondBucket;
+        return this.insertionOrders[firstId] < this.insertionOrders[secondId];
+    }
+
+    /**
+     * Adds a country to the heap.
+     */
+    private void push(int countryId) {
+        this.heap[this.heapSize] = countryId;
+        this.heapIndexes[countryId] = this.heapSize;
+        this.siftUp(this.heapSize++);
+    }
+
+    /**
+     * Removes the first country from the heap.
+     * @return The id of the removed country.
+     */
+    private int pop() {
+        int first = this.heap[0];
+        this.heapIndexes[first] = -1;
+        if (--this.heapSize > 0) {
+            this.heap[0] = this.heap[this.heapSize];
+            this.heapIndexes[this.heap[0]] = 0;
+            this.siftDown(0);
+        }
+        return first;
+    }
+
+    /**
+     * Moves the country at the index up the heap until its parent should be taken before it.
+     */
+    private void siftUp(int index) {
+        int countryId = this.heap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) / 2, parentId = this.heap[parentIndex];
+            if (!this.isBefore(countryId, parentId)) break;
+            this.heap[index] = parentId;
+            this.heapIndexes[parentId] = index;
+            index = parentIndex;
+        }
+        this.heap[index] = countryId;
+        this.heapIndexes[countryId] = index;
+    }
+
+    /**
+     * Moves the country at the index down the heap until it should be taken before its children.
+     */
+    private void siftDown(int index) {
+        int countryId = this.heap[index];
+        while (2 * index + 1 < this.heapSize) {
+            int childIndex = 2 * index + 1;
+            if (childIndex + 1 < this.heapSize && this.isBefore(this.heap[childIndex + 1], this.heap[childIndex])) childIndex++;
+            int childId = this.heap[childIndex];
+            if (!this.isBefore(childId, countryId)) break;
+            this.heap[index] = childId;
+            this.heapIndexes[childId] = index;
+            index = childIndex;
+        }
+        this.heap[index] = countryId;
+        this.heapIndexes[countryId] = index;
+    }
+}
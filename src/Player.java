@@ -1,9 +1,4 @@
-import org.json.JSONObject;
-
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Random;
+import java.util.*;
 
 /**
  * A class representing a player in the game.
@@ -12,6 +7,7 @@ public abstract class Player {
     private String name; // The name of the player.
     private String color; // The color of the player.
     protected List<Country> countries; // A list of the countries the player occupies.
+    private Set<Country> frontier; // A set of the countries the player occupies that have enemy neighbors, kept up to date by the countries.
 
     /**
      * A constructor that sets object variables.
@@ -19,12 +15,17 @@ public abstract class Player {
     public Player(String name, String color) {
         this.name = name;
         this.color = color;
+        this.frontier = new LinkedHashSet<>();
     }
 
     public String getName() {
         return this.name;
     }
 
+    public String getColor() {
+        return this.color;
+    }
+
     /**
      * Clears the countries list.
      */
@@ -46,15 +47,31 @@ public abstract class Player {
         this.countries.remove(country);
     }
 
+    /**
+     * Adds the country to the frontier or removes it, according to its current owner and enemy neighbors. Called by the country.
+     * @param country A country that changed.
+     */
+    public void updateFrontier(Country country) {
+        if (country.getOwner() == this && country.getNumOfEnemyNeighbors() > 0) this.frontier.add(country);
+        else this.frontier.remove(country);
+    }
+
+    /**
+     * @return An immutable view of the countries the player occupies that have enemy neighbors.
+     */
+    public Set<Country> getFrontier() {
+        return Collections.unmodifiableSet(this.frontier);
+    }
+
     /**
      * Handles the process of distributing troops between the countries before the game starts.
      * It gives every country a random number of troops, while making sure there is at least one troop in every country.
      * @param initialCountries A list of the countries the player controls at the beginning of the game.
      * @param initialTroops The amount of troops the player receives at the beginning of the game.
+     * @param random The random generator of the game.
      */
-    public void setInitialCountries(List<Country> initialCountries, int initialTroops) {
+    public void setInitialCountries(List<Country> initialCountries, int initialTroops, Random random) {
         this.countries = new ArrayList<>();
-        Random random = new Random();
         int maxTroopsInCountry = (int) ((initialTroops / (double) initialCountries.size()) * 2);
 
         for (int i = 0; i < initialCountries.size(); i++) {
@@ -70,21 +87,6 @@ public abstract class Player {
         }
     }
 
-    /**
-     * @return A json object with all of the relevant data about the player, so that it can be sent to all players.
-     */
-    public JSONObject getJSONObject() {
-        JSONObject playerObject = new JSONObject();
-        playerObject.put("color", this.color);
-
-        JSONObject countriesObject = new JSONObject();
-        for (Country country : this.countries)
-            countriesObject.put(country.getName(), country.getNumOfTroops());
-        playerObject.put("countries", countriesObject);
-
-        return playerObject;
-    }
-
     /**
      * Calculates the number of troops the player should receive in this turn.
      * It is based on the number of countries he occupies and any continents he fully controls.
@@ -94,9 +96,8 @@ public abstract class Player {
     public int getNumberOfNewTroops(Collection<Continent> continents) {
         int continentBonuses = 0;
         for (Continent continent : continents) {
-            if (this.countries.containsAll(continent.getCountries()))
+            if (continent.getOwner() == this)
                 continentBonuses += continent.getTroopsBonus();
-
         }
         return Math.max(this.countries.size() / 3 + continentBonuses, 3);
     }
@@ -0,0 +1,359 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A command line benchmark of how the game scales with the size of the map. On the classic map and on maps of every size from MapGenerator
+ * it plays games with the players of a real game (the AI players play, and the turns of the humans are skipped), and measures the time
+ * and the memory allocated by every operation of a turn: starting a game, an AI turn, a turn of an AI that plans with tree search (MCTSPlayer),
+ * the attack path searches of the AI, capturing the game state, and encoding the turn message (json and binary, snapshot and changes,
+ * with the size of the message in chars or bytes). The size of a path search is the number of countries it reached, and the size of
+ * a tree search turn is the number of rollouts per second it searched.
+ * Should be run for every release, to keep the scaling curve:
+ * java ScalingBenchmark [countries...] (42, 500, 5000 and 50000 by default)
+ * The rows are also written as csv to the file in the CSV_FILE_PROPERTY system property, if it is set.
+ * Allocations are counted on the benchmark thread, so the parallel rows of the attack distance matrix (on big maps) aren't counted.
+ * The game logs are muted while measuring.
+ */
+public class ScalingBenchmark {
+    private static final int[] DEFAULT_SIZES = {42, 500, 5000, 50000}; // The default numbers of countries of the generated maps.
+    private static final double AVERAGE_DEGREE = 4; // The average number of neighbors of a country on the generated maps (about the same as the classic map).
+    private static final long SEED = 42; // The seed of the generated maps, of the games and of choosing the sources of the searches, so every run plays the same games on the same maps.
+    private static final int NUM_OF_MCTS_AI_PLAYERS = 1; // The number of AI players that plan with tree search in the games of the tree search turns (the others play the fixed strategy).
+    private static final String CSV_FILE_PROPERTY = "benchmark.csv"; // The system property with the path of a csv file to write the rows to.
+    private static final long WARMUP_NANOS = 200000000L; // The minimum time an operation runs before it is measured, so it is compiled.
+    private static final long MEASURE_NANOS = 500000000L; // The minimum time an operation is measured.
+    private static final int MIN_ITERATIONS = 3; // The minimum number of times an operation is run for warmup and for measuring.
+
+    private static final PrintStream out = System.out; // The standard output, for the results while the game logs are muted.
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean(); // The bean that counts the memory allocated by the benchmark thread.
+
+    /**
+     * The measurement of an operation - runs are discarded during the warmup, then counted until there are enough of them.
+     */
+    private static class Measurement {
+        private final String operation; // The name of the operation.
+        private int numOfWarmupRuns; // The number of runs that were discarded.
+        private long warmupNanos; // The total time of the runs that were discarded.
+        private int numOfRuns; // The number of measured runs.
+        private long totalNanos; // The total time of the measured runs.
+        private long totalBytes; // The total memory allocated by the measured runs.
+        private long startNanos; // The time the current run started.
+        private long startBytes; // The memory allocated by the thread before the current run.
+        private int outputSize; // The size of the output of the last run (the length of the message for encoding, the countries reached for searches), or 0.
+
+        public Measurement(String operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * @return Whether the operation should be run again.
+         */
+        public boolean needsMoreRuns() {
+            return this.numOfRuns < ScalingBenchmark.MIN_ITERATIONS || this.totalNanos < ScalingBenchmark.MEASURE_NANOS;
+        }
+
+        /**
+         * Starts a run of the operation.
+         */
+        public void start() {
+            this.startBytes = getAllocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Stops a run of the operation, and counts it if the warmup is over.
+         */
+        public void stop() {
+            long nanos = System.nanoTime() - this.startNanos, bytes = getAllocatedBytes() - this.startBytes;
+            if (this.numOfWarmupRuns < ScalingBenchmark.MIN_ITERATIONS || this.warmupNanos < ScalingBenchmark.WARMUP_NANOS) {
+                this.numOfWarmupRuns++;
+                this.warmupNanos += nanos;
+            } else {
+                this.numOfRuns++;
+                this.totalNanos += nanos;
+                this.totalBytes += bytes;
+            }
+        }
+
+        public String getOperation() {
+            return this.operation;
+        }
+
+        public int getOutputSize() {
+            return this.outputSize;
+        }
+
+        public void setOutputSize(int outputSize) {
+            this.outputSize = outputSize;
+        }
+
+        public double getMicrosPerRun() {
+            return this.totalNanos / 1e3 / this.numOfRuns;
+        }
+
+        public long getBytesPerRun() {
+            return this.totalBytes / this.numOfRuns;
+        }
+    }
+
+    /**
+     * @return The number of bytes the benchmark thread allocated so far, or 0 if the JVM doesn't count them.
+     */
+    private static long getAllocatedBytes() {
+        if (!(ScalingBenchmark.threadBean instanceof com.sun.management.ThreadMXBean)) return 0;
+        return ((com.sun.management.ThreadMXBean) ScalingBenchmark.threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @param topology The topology of a map.
+     * @param random The random generator of the seeds of the games.
+     * @param numOfMCTSPlayers The number of the AI players that plan with tree search.
+     * @return A new game on the map with the players of a real game, with the countries dealt.
+     * The human players don't have sockets, and their turns are skipped like the turns of humans that disconnected.
+     * The battle resolver of the game is bound to the current thread, which plays the turns of the game like its mailbox would.
+     */
+    private static GameManager startGame(MapTopology topology, Random random, int numOfMCTSPlayers) {
+        GameManager game = new GameManager(topology, random.nextLong());
+        BattleResolver.bind(game.getResolver());
+        for (int i = 1; !game.readyToStart(); i++)
+            game.addHumanPlayer("Human #" + i, null, false);
+        game.addAIPlayers(numOfMCTSPlayers);
+        game.dealCountries();
+        return game;
+    }
+
+    /**
+     * @param game A game.
+     * @return Whether one of the AI players of the game lost, so the benchmark starts a new game.
+     */
+    private static boolean hasAIPlayerLost(GameManager game) {
+        for (Player player : game.getPlayers())
+            if (player instanceof AIPlayer && player.hasLost()) return true;
+        return false;
+    }
+
+    /**
+     * @param game A game.
+     * @return The first AI player of the game.
+     */
+    private static AIPlayer getFirstAIPlayer(GameManager game) {
+        for (Player player : game.getPlayers())
+            if (player instanceof AIPlayer) return (AIPlayer) player;
+        return null;
+    }
+
+    /**
+     * @param game A game.
+     * @param turn The number of turns that were played in the game.
+     * @param currentPlayer The index of the player whose turn is next.
+     * @return A snapshot of the game. The benchmark plays the turns itself, so the current player is set in the snapshot instead of in the game.
+     */
+    private static GameState captureState(GameManager game, int turn, int currentPlayer) {
+        GameState state = game.captureState();
+        state.setTurn(turn, GameState.DRAFT_PHASE, currentPlayer);
+        return state;
+    }
+
+    /**
+     * Measures the operations of a game on a map.
+     * @param topology The topology of the map.
+     * @return The measurements of the operations.
+     */
+    private static List<Measurement> measure(MapTopology topology) {
+        Random random = new Random(ScalingBenchmark.SEED);
+        List<Measurement> measurements = new ArrayList<>();
+
+        Measurement startGame = new Measurement("start game");
+        while (startGame.needsMoreRuns()) {
+            startGame.start();
+            startGame(topology, random, 0);
+            startGame.stop();
+        }
+        measurements.add(startGame);
+
+        // The AI turns are played one after the other, and a new game is started when an AI loses. The state before the last turn is kept for the changes.
+        GameManager game = startGame(topology, random, 0);
+        int turn = 0, currentPlayer = 0;
+        GameState previousState = captureState(game, turn, currentPlayer), state = previousState;
+        Measurement aiTurn = new Measurement("AI turn");
+        while (aiTurn.needsMoreRuns()) {
+            Player player = game.getPlayers().get(currentPlayer);
+            if (player instanceof AIPlayer) {
+                aiTurn.start();
+                ((AIPlayer) player).doTurn();
+                aiTurn.stop();
+            }
+
+            do
+                currentPlayer = (currentPlayer + 1) % game.getPlayers().size();
+            while (game.getPlayers().get(currentPlayer).hasLost());
+            turn++;
+            previousState = state;
+            state = captureState(game, turn, currentPlayer);
+            if (hasAIPlayerLost(game)) {
+                game = startGame(topology, random, 0);
+                turn = currentPlayer = 0;
+                previousState = state = captureState(game, turn, currentPlayer);
+            }
+        }
+        measurements.add(aiTurn);
+
+        // The turns of an AI that plans with tree search, in other games. The other AI players are played without measuring.
+        GameManager mctsGame = startGame(topology, random, ScalingBenchmark.NUM_OF_MCTS_AI_PLAYERS);
+        int mctsCurrentPlayer = 0;
+        Measurement mctsTurn = new Measurement("MCTS turn");
+        while (mctsTurn.needsMoreRuns()) {
+            Player player = mctsGame.getPlayers().get(mctsCurrentPlayer);
+            if (player instanceof MCTSPlayer) {
+                mctsTurn.start();
+                ((MCTSPlayer) player).doTurn();
+                mctsTurn.stop();
+                mctsTurn.setOutputSize((int) Math.round(((MCTSPlayer) player).getRolloutsPerSecond()));
+            } else if (player instanceof AIPlayer)
+                ((AIPlayer) player).doTurn();
+
+            do
+                mctsCurrentPlayer = (mctsCurrentPlayer + 1) % mctsGame.getPlayers().size();
+            while (mctsGame.getPlayers().get(mctsCurrentPlayer).hasLost());
+            if (hasAIPlayerLost(mctsGame)) {
+                mctsGame = startGame(topology, random, ScalingBenchmark.NUM_OF_MCTS_AI_PLAYERS);
+                mctsCurrentPlayer = 0;
+            }
+        }
+        measurements.add(mctsTurn);
+
+        // The searches the AI makes - a search from one of its countries to all the countries it can attack (a row of the attack distance matrix),
+        // and a search for the closest border of a continent (what the AI does instead on maps that are too big for the matrix).
+        Country[] countries = game.getCountries();
+        List<Player> players = game.getPlayers();
+        AIPlayer aiPlayer = getFirstAIPlayer(game);
+        List<Country> sources = new ArrayList<>(aiPlayer.getFrontier());
+        List<Continent> continents = game.getContinents();
+        Measurement pathSearch = new Measurement("path search");
+        while (pathSearch.needsMoreRuns()) {
+            Country source = sources.get(random.nextInt(sources.size()));
+            pathSearch.start();
+            PathFinder.forCurrentThread().search(source, null, countries);
+            pathSearch.stop();
+
+            int numOfReachedCountries = 0;
+            for (int countryId = 0; countryId < countries.length; countryId++)
+                if (PathFinder.forCurrentThread().getDistance(countryId) != Integer.MAX_VALUE) numOfReachedCountries++;
+            pathSearch.setOutputSize(numOfReachedCountries);
+        }
+        measurements.add(pathSearch);
+
+        Measurement borderSearch = new Measurement("border search");
+        while (borderSearch.needsMoreRuns()) {
+            Country source = sources.get(random.nextInt(sources.size()));
+            Continent continent = continents.get(random.nextInt(continents.size()));
+            borderSearch.start();
+            source.getClosestContinentBorder(continent, countries);
+            borderSearch.stop();
+        }
+        measurements.add(borderSearch);
+
+        Measurement captureState = new Measurement("capture state");
+        while (captureState.needsMoreRuns()) {
+            captureState.start();
+            game.captureState();
+            captureState.stop();
+        }
+        measurements.add(captureState);
+
+        TurnEncoder encoder = new TurnEncoder(game.getGameId(), players);
+        GameState[] baseStates = {null, previousState};
+        for (GameState baseState : baseStates) {
+            String messageKind = baseState == null ? " snapshot" : " changes";
+            Measurement encodeText = new Measurement("json" + messageKind), encodeBinary = new Measurement("binary" + messageKind);
+            int baseVersion = baseState == null ? GameManager.NO_VERSION : 0;
+            while (encodeText.needsMoreRuns()) {
+                encodeText.start();
+                String message = encoder.encodeText(state, 1, baseState, baseVersion, 0);
+                encodeText.stop();
+                encodeText.setOutputSize(message.length());
+            }
+            while (encodeBinary.needsMoreRuns()) {
+                encodeBinary.start();
+                ByteBuffer frame = encoder.encodeBinary(state, 1, baseState, baseVersion, 0);
+                encodeBinary.stop();
+                encodeBinary.setOutputSize(frame.remaining());
+            }
+            measurements.add(encodeText);
+            measurements.add(encodeBinary);
+        }
+
+        return measurements;
+    }
+
+    /**
+     * Runs the benchmark and prints the time and allocated memory of every operation on every map.
+     * @param args The numbers of countries of the generated maps.
+     * @throws IOException If the csv file can't be written.
+     */
+    public static void main(String[] args) throws IOException {
+        int[] sizes = ScalingBenchmark.DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        List<String> mapNames = new ArrayList<>();
+        List<MapTopology> topologies = new ArrayList<>();
+        mapNames.add("classic");
+        topologies.add(new GameManager().getTopology());
+        for (int size : sizes) {
+            // The continents grow with the square root of the number of countries - 6 on a map of 42 countries, like the classic map.
+            int numOfContinents = (int) Math.max(1, Math.min(size, Math.round(Math.sqrt(size) * 6 / Math.sqrt(42))));
+            mapNames.add("generated");
+            topologies.add(new MapGenerator(size, numOfContinents, ScalingBenchmark.AVERAGE_DEGREE, ScalingBenchmark.SEED).generate());
+        }
+
+        List<String> csvRows = new ArrayList<>();
+        csvRows.add("map,countries,continents,operation,micros,allocated bytes,size");
+        ScalingBenchmark.out.println(String.format("%-10s %9s %10s  %-16s %14s %14s %12s", "Map", "Countries", "Continents", "Operation", "Time (us)", "Allocated (B)", "Size"));
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        try {
+            for (int i = 0; i < topologies.size(); i++) {
+                MapTopology topology = topologies.get(i);
+                for (Measurement measurement : measure(topology)) {
+                    String outputSize = measurement.getOutputSize() == 0 ? "" : String.valueOf(measurement.getOutputSize());
+                    ScalingBenchmark.out.println(String.format("%-10s %9d %10d  %-16s %14.1f %14d %12s", mapNames.get(i), topology.getNumOfCountries(), topology.getNumOfContinents(),
+                            measurement.getOperation(), measurement.getMicrosPerRun(), measurement.getBytesPerRun(), outputSize));
+                    csvRows.add(mapNames.get(i) + "," + topology.getNumOfCountries() + "," + topology.getNumOfContinents() + "," + measurement.getOperation() + ","
+                            + String.format("%.1f", measurement.getMicrosPerRun()) + "," + measurement.getBytesPerRun() + "," + outputSize);
+                }
+            }
+        } finally {
+            System.setOut(ScalingBenchmark.out);
+        }
+
+        String csvFile = System.getProperty(ScalingBenchmark.CSV_FILE_PROPERTY);
+        if (csvFile != null) {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(csvFile)))) {
+                for (String row : csvRows)
+                    writer.println(row);
+            }
+            System.out.println("Wrote " + csvFile);
+        }
+    }
+}
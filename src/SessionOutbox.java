@@ -0,0 +1,162 @@
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.nio.ByteBuffer;
+
+/**
+ * An outbound queue of the messages to a player, sent asynchronously on the socket, so a slow browser never blocks the game.
+ * At most MAX_IN_FLIGHT messages are being sent at a time. Every message is a full version of the game state (a snapshot, or the changes since
+ * a version the player already acknowledged), so a newer message replaces an older one that still waits, and a lagging player only gets the newest.
+ * Messages are json strings or binary frames. They are the same objects for all the players who share a version
+ * (every socket reads a duplicate of a shared frame), so nothing is encoded or copied per player.
+ * The outbox keeps the send latency and the numbers of sent, coalesced and dropped messages of the socket.
+ */
+public class SessionOutbox {
+    private static final int MAX_IN_FLIGHT = 1; // The maximum number of messages that are being sent at a time (containers don't allow more than one async text message on a socket).
+
+    private final Session socket; // The socket the messages are sent on.
+    private Object pendingMessage; // The newest message (a String or a ByteBuffer) that waits to be sent, or null.
+    private int numInFlight; // The number of messages that are being sent.
+    private boolean isClosed; // Whether the outbox was closed, so messages are dropped.
+    private boolean isClosing; // Whether the outbox is closed once the messages that are being sent and the waiting message were sent.
+    private long numOfSentMessages; // The number of messages that were sent.
+    private long numOfCoalescedMessages; // The number of messages that were replaced by newer ones before they were sent.
+    private long numOfDroppedMessages; // The number of messages that failed or were dropped because the outbox was closed.
+    private long totalLatencyNanos; // The total time from starting to send a message until it was sent, of all the sent messages.
+    private long maxLatencyNanos; // The maximum time from starting to send a message until it was sent.
+
+    /**
+     * A constructor that sets object variables.
+     * @param socket The socket the messages are sent on.
+     */
+    public SessionOutbox(Session socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Sends a json message. Returns immediately - the message is sent now if there is room in flight, and otherwise waits (replacing an older waiting message).
+     * @param message The message.
+     */
+    public void send(String message) {
+        this.enqueue(message);
+    }
+
+    /**
+     * Sends a binary frame, like a json message. The frame itself isn't read, so it can be shared.
+     * @param frame The frame.
+     */
+    public void send(ByteBuffer frame) {
+        this.enqueue(frame);
+    }
+
+    /**
+     * Sends a message now if there is room in flight, and otherwise keeps it as the waiting message.
+     * @param message The message (a String or a ByteBuffer).
+     */
+    private void enqueue(Object message) {
+        synchronized (this) {
+            if (this.isClosed || this.isClosing) {
+                this.numOfDroppedMessages++;
+                return;
+            }
+            if (this.numInFlight >= SessionOutbox.MAX_IN_FLIGHT) {
+                if (this.pendingMessage != null) this.numOfCoalescedMessages++;
+                this.pendingMessage = message;
+                return;
+            }
+            this.numInFlight++;
+        }
+        this.startSending(message);
+    }
+
+    /**
+     * Starts sending a message that was counted in flight.
+     * @param message The message (a String or a ByteBuffer).
+     */
+    private void startSending(Object message) {
+        long startTime = System.nanoTime();
+        try {
+            if (message instanceof ByteBuffer)
+                this.socket.getAsyncRemote().sendBinary(((ByteBuffer) message).duplicate(), result -> this.onSendFinished(result, startTime));
+            else
+                this.socket.getAsyncRemote().sendText((String) message, result -> this.onSendFinished(result, startTime));
+        } catch (IllegalStateException e) { // The socket was closed.
+            this.onSendFinished(new SendResult(e), startTime);
+        }
+    }
+
+    /**
+     * Called when sending a message finished (successfully or not). Records it, and sends the waiting message if there is one.
+     * @param result The result of sending the message.
+     * @param startTime The time (in System.nanoTime) the message started to be sent.
+     */
+    private void onSendFinished(SendResult result, long startTime) {
+        long latencyNanos = System.nanoTime() - startTime;
+        Object nextMessage;
+        synchronized (this) {
+            this.numInFlight--;
+            if (result.isOK()) {
+                this.numOfSentMessages++;
+                this.totalLatencyNanos += latencyNanos;
+                this.maxLatencyNanos = Math.max(this.maxLatencyNanos, latencyNanos);
+            } else {
+                this.numOfDroppedMessages++;
+                if (!this.isClosed) System.out.println("Failed sending a message: " + result.getException());
+            }
+
+            nextMessage = this.isClosed ? null : this.pendingMessage;
+            this.pendingMessage = null;
+            if (nextMessage != null) this.numInFlight++;
+            else if (this.isClosing && this.numInFlight == 0) this.isClosed = true;
+        }
+        if (nextMessage != null) this.startSending(nextMessage);
+    }
+
+    /**
+     * Closes the outbox after the messages that are being sent and the waiting message were sent (like the final state of a game).
+     * New messages are dropped.
+     */
+    public synchronized void closeAfterFlush() {
+        this.isClosing = true;
+        if (this.numInFlight == 0) this.isClosed = true; // There is a waiting message only while another message is being sent.
+    }
+
+    /**
+     * Closes the outbox. The waiting message and all the messages after it are dropped.
+     */
+    public synchronized void close() {
+        this.isClosed = true;
+        if (this.pendingMessage != null) {
+            this.numOfDroppedMessages++;
+            this.pendingMessage = null;
+        }
+    }
+
+    public synchronized long getNumOfSentMessages() {
+        return this.numOfSentMessages;
+    }
+
+    public synchronized long getNumOfCoalescedMessages() {
+        return this.numOfCoalescedMessages;
+    }
+
+    public synchronized long getNumOfDroppedMessages() {
+        return this.numOfDroppedMessages;
+    }
+
+    /**
+     * @return The average time from starting to send a message until it was sent, in milliseconds.
+     */
+    public synchronized double getAverageLatencyMillis() {
+        return this.numOfSentMessages == 0 ? 0 : this.totalLatencyNanos / 1e6 / this.numOfSentMessages;
+    }
+
+    public synchronized double getMaxLatencyMillis() {
+        return this.maxLatencyNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Messages: " + this.numOfSentMessages + " sent, " + this.numOfCoalescedMessages + " coalesced, " + this.numOfDroppedMessages + " dropped, "
+                + String.format("%.1f", this.getAverageLatencyMillis()) + " ms average latency, " + String.format("%.1f", this.getMaxLatencyMillis()) + " ms max latency";
+    }
+}
@@ -0,0 +1,148 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A class that encodes the turn messages of a game straight from its state arrays, without building json objects.
+ * The json format is:
+ * {"gameId", "seq", "baseSeq", "players": [{"name", "color"}], "countries": {id: [owner index, troops]}, "currentPlayer", "newTroops"}.
+ * Browsers that negotiate it get the same message as a binary frame (big endian): format byte, gameId, seq, baseSeq and newTroops ints,
+ * current player index byte, number of players byte, and for every player its name and color (unsigned short length and UTF-8 bytes),
+ * then the number of countries unsigned short, and for every country its id unsigned short, owner index byte and troops int.
+ * Games that don't fit these fields (too many countries or players, or too long names) are sent as json to all the players.
+ * The json is written into a text buffer that is reused between messages, and the binary frame is allocated with its exact size.
+ * Every game has its own encoder, which is only used in the mailbox of the game.
+ */
+public class TurnEncoder {
+    public static final byte BINARY_FORMAT = 1; // The first byte of binary frames, the version of the binary format.
+    private static final int BINARY_HEADER_BYTES = 1 + 4 * 4 + 1 + 1 + 2; // The number of bytes in a binary frame besides the players and countries.
+    private static final int BINARY_COUNTRY_BYTES = 2 + 1 + 4; // The number of bytes of every country in a binary frame.
+    private static final int MAX_BINARY_COUNTRIES = 0xFFFF; // The maximum number of countries of a binary frame, whose ids are unsigned shorts.
+    private static final int MAX_BINARY_PLAYERS = Byte.MAX_VALUE; // The maximum number of players of a binary frame, whose indexes are signed bytes (no owner is -1).
+    private static final int MAX_BINARY_STRING_BYTES = 0xFFFF; // The maximum number of bytes of a name or color in a binary frame, whose lengths are unsigned shorts.
+
+    private final int gameId; // The id of the game.
+    private final List<Player> players; // The list of players of the game. Their order sets the owner indexes.
+    private final StringBuilder text = new StringBuilder(); // The buffer the json messages are written into, reused between messages.
+
+    /**
+     * A constructor that sets object variables.
+     * @param gameId The id of the game.
+     * @param players The list of players of the game.
+     */
+    public TurnEncoder(int gameId, List<Player> players) {
+        this.gameId = gameId;
+        this.players = players;
+    }
+
+    /**
+     * Encodes a json message with the countries that changed between two versions of the game state.
+     * @param state The version of the game state to send.
+     * @param version The sequence number of the version.
+     * @param baseState The version the player has, or null for a snapshot with all the countries.
+     * @param baseVersion The sequence number of the base version, or GameManager.NO_VERSION.
+     * @param newTroops The number of new troops of the current player.
+     * @return A string with the json message.
+     */
+    public String encodeText(GameState state, int version, GameState baseState, int baseVersion, int newTroops) {
+        StringBuilder text = this.text;
+        text.setLength(0);
+        text.append("{\"gameId\":").append(this.gameId).append(",\"seq\":").append(version).append(",\"baseSeq\":").append(baseVersion).append(",\"players\":[");
+        for (int i = 0; i < this.players.size(); i++) {
+            if (i > 0) text.append(',');
+            text.append("{\"name\":");
+            appendQuoted(text, this.players.get(i).getName());
+            text.append(",\"color\":");
+            appendQuoted(text, this.players.get(i).getColor());
+            text.append('}');
+        }
+
+        text.append("],\"countries\":{");
+        boolean isFirstCountry = true;
+        for (int countryId = 0; countryId < state.getTopology().getNumOfCountries(); countryId++)
+            if (baseState == null || state.isCountryChanged(baseState, countryId)) {
+                if (!isFirstCountry) text.append(',');
+                isFirstCountry = false;
+                text.append('"').append(countryId).append("\":[").append(state.getOwner(countryId)).append(',').append(state.getTroops(countryId)).append(']');
+            }
+
+        text.append("},\"currentPlayer\":");
+        appendQuoted(text, this.players.get(state.getCurrentPlayer()).getName());
+        text.append(",\"newTroops\":").append(newTroops).append('}');
+        return text.toString();
+    }
+
+    /**
+     * Appends a string to a json text as a quoted json string.
+     * @param text The json text.
+     * @param value The string.
+     */
+    private static void appendQuoted(StringBuilder text, String value) {
+        text.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') text.append('\\').append(c);
+            else if (c < 0x20) text.append(String.format("\\u%04x", (int) c));
+            else text.append(c);
+        }
+        text.append('"');
+    }
+
+    /**
+     * @param state A version of the game state.
+     * @return Whether the version fits the fields of a binary frame. If it doesn't, it has to be sent as a json message.
+     */
+    public boolean canEncodeBinary(GameState state) {
+        if (state.getTopology().getNumOfCountries() > TurnEncoder.MAX_BINARY_COUNTRIES || this.players.size() > TurnEncoder.MAX_BINARY_PLAYERS)
+            return false;
+
+        for (Player player : this.players)
+            if (player.getName().getBytes(StandardCharsets.UTF_8).length > TurnEncoder.MAX_BINARY_STRING_BYTES
+                    || player.getColor().getBytes(StandardCharsets.UTF_8).length > TurnEncoder.MAX_BINARY_STRING_BYTES)
+                return false;
+        return true;
+    }
+
+    /**
+     * Encodes a binary frame with the countries that changed between two versions of the game state.
+     * The frame is read only by the sockets (every socket sends a duplicate of it), so it can be shared by all the players with the same base version.
+     * The version has to fit the fields of the frame (see canEncodeBinary).
+     * @param state The version of the game state to send.
+     * @param version The sequence number of the version.
+     * @param baseState The version the player has, or null for a snapshot with all the countries.
+     * @param baseVersion The sequence number of the base version, or GameManager.NO_VERSION.
+     * @param newTroops The number of new troops of the current player.
+     * @return A buffer with the frame, ready to be read.
+     * @throws IllegalArgumentException If the version doesn't fit the fields of the frame.
+     */
+    public ByteBuffer encodeBinary(GameState state, int version, GameState baseState, int baseVersion, int newTroops) {
+        if (!this.canEncodeBinary(state))
+            throw new IllegalArgumentException("The game state doesn't fit in a binary frame: " + state.getTopology().getNumOfCountries() + " countries, " + this.players.size() + " players");
+
+        int numOfCountries = state.getTopology().getNumOfCountries(), numOfChangedCountries = 0;
+        for (int countryId = 0; countryId < numOfCountries; countryId++)
+            if (baseState == null || state.isCountryChanged(baseState, countryId)) numOfChangedCountries++;
+
+        byte[][] playerStrings = new byte[this.players.size() * 2][];
+        int frameBytes = TurnEncoder.BINARY_HEADER_BYTES + numOfChangedCountries * TurnEncoder.BINARY_COUNTRY_BYTES;
+        for (int i = 0; i < this.players.size(); i++) {
+            playerStrings[2 * i] = this.players.get(i).getName().getBytes(StandardCharsets.UTF_8);
+            playerStrings[2 * i + 1] = this.players.get(i).getColor().getBytes(StandardCharsets.UTF_8);
+            frameBytes += 2 + playerStrings[2 * i].length + 2 + playerStrings[2 * i + 1].length;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(frameBytes);
+        frame.put(TurnEncoder.BINARY_FORMAT).putInt(this.gameId).putInt(version).putInt(baseVersion).putInt(newTroops);
+        frame.put((byte) state.getCurrentPlayer()).put((byte) this.players.size());
+        for (byte[] playerString : playerStrings)
+            frame.putShort((short) playerString.length).put(playerString);
+
+        frame.putShort((short) numOfChangedCountries);
+        for (int countryId = 0; countryId < numOfCountries; countryId++)
+            if (baseState == null || state.isCountryChanged(baseState, countryId))
+                frame.putShort((short) countryId).put((byte) state.getOwner(countryId)).putInt(state.getTroops(countryId));
+
+        frame.flip();
+        return frame;
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A class that runs the work of the games off the threads of the WebSocket container.
+ * The mailboxes of the games run on a bounded pool of game threads, so both messages and AI turns are computed there,
+ * one at a time for every game. The delay before an AI turn is finished (so humans can see the moves) is waited on a scheduled executor
+ * instead of sleeping. Every AI turn is a separate task that schedules the next step when it's done,
+ * so a series of AI turns never recurses and never holds a thread while waiting.
+ * The tree searches of AI players that plan with MCTSPlayer run on their own small pool, so they don't take the common fork-join pool
+ * that the odds simulations and the attack distance matrices of all the games share.
+ * The scheduler keeps the queue depth and the latency of the turns (from being scheduled until the moves are made).
+ */
+public class TurnScheduler {
+    private static final int NUM_OF_GAME_THREADS = Runtime.getRuntime().availableProcessors(); // The number of threads that run the mailboxes of the games.
+    private static final int NUM_OF_SEARCH_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2); // The number of threads that run the trees of the tree searches.
+    private static final int MAX_QUEUED_MAILBOXES = 1 << 16; // The maximum number of game mailboxes that wait for a thread. More are retried after a delay.
+    private static final long AI_TURN_DELAY_MILLIS = 2000; // The number of milliseconds to wait at the end of an AI turn.
+    private static final long RETRY_DELAY_MILLIS = 100; // The number of milliseconds to wait before retrying work that the pool rejected.
+
+    private static final TurnScheduler INSTANCE = new TurnScheduler(); // The scheduler of the server.
+
+    private final ThreadPoolExecutor gameExecutor; // The pool that runs the mailboxes of the games.
+    private final ScheduledExecutorService delayExecutor; // The executor that waits the delays at the end of AI turns.
+    private final ExecutorService searchExecutor; // The pool that runs the trees of the tree searches of the AI players.
+    private final LongAdder numOfTurns = new LongAdder(); // The number of AI turns that were played.
+    private final LongAdder totalLatencyNanos = new LongAdder(); // The total latency of all the AI turns.
+    private final AtomicLong maxLatencyNanos = new AtomicLong(); // The maximum latency of an AI turn.
+
+    /**
+     * A constructor that creates the executors. Their threads are daemons, so they don't keep the server alive.
+     */
+    private TurnScheduler() {
+        this.gameExecutor = new ThreadPoolExecutor(TurnScheduler.NUM_OF_GAME_THREADS, TurnScheduler.NUM_OF_GAME_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(TurnScheduler.MAX_QUEUED_MAILBOXES), createThreadFactory("game-"));
+        this.delayExecutor = Executors.newSingleThreadScheduledExecutor(createThreadFactory("game-delay-"));
+        this.searchExecutor = Executors.newFixedThreadPool(TurnScheduler.NUM_OF_SEARCH_THREADS, createThreadFactory("search-"));
+    }
+
+    public static TurnScheduler getInstance() {
+        return TurnScheduler.INSTANCE;
+    }
+
+    /**
+     * @param namePrefix The prefix of the names of the threads.
+     * @return A factory of numbered daemon threads.
+     */
+    private static ThreadFactory createThreadFactory(String namePrefix) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return The pool the mailboxes of the games run on.
+     */
+    public Executor getGameExecutor() {
+        return this.gameExecutor;
+    }
+
+    /**
+     * @return The pool the trees of the tree searches run on.
+     */
+    public ExecutorService getSearchExecutor() {
+        return this.searchExecutor;
+    }
+
+    public int getNumOfSearchThreads() {
+        return TurnScheduler.NUM_OF_SEARCH_THREADS;
+    }
+
+    /**
+     * Runs a task after a short delay, for work that the pool rejected because it was full.
+     * @param task The task.
+     */
+    public void retryLater(Runnable task) {
+        System.out.println("Game queue is full (" + this.getQueueDepth() + " games), retrying later");
+        this.delayExecutor.schedule(task, TurnScheduler.RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a task repeatedly on the delay executor. The task should be short, and hand its real work to the mailboxes of the games.
+     * @param task The task.
+     * @param periodMillis The number of milliseconds between runs.
+     */
+    public void scheduleRepeating(Runnable task, long periodMillis) {
+        this.delayExecutor.scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the turn of an AI player. Returns immediately.
+     * The turn is played in the mailbox of the game, and the game finishes the turn (in its mailbox) after the delay.
+     * @param game The game of the player.
+     * @param player The AI player whose turn it is.
+     */
+    public void scheduleAITurn(GameManager game, AIPlayer player) {
+        long scheduleTime = System.nanoTime();
+        game.getMailbox().execute(() -> this.playAITurn(game, player, scheduleTime));
+    }
+
+    /**
+     * Plays the turn of an AI player, and schedules the end of the turn after the delay.
+     * @param game The game of the player.
+     * @param player The AI player whose turn it is.
+     * @param scheduleTime The time (in System.nanoTime) the turn was scheduled.
+     */
+    private void playAITurn(GameManager game, AIPlayer player, long scheduleTime) {
+        if (!game.isRunning()) return; // The game ended while the turn was scheduled.
+        try {
+            player.doTurn();
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // The game goes on to the next turn even if the AI failed.
+        }
+
+        long latencyNanos = System.nanoTime() - scheduleTime;
+        this.numOfTurns.increment();
+        this.totalLatencyNanos.add(latencyNanos);
+        this.maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+        System.out.println(player.getName() + " played in " + latencyNanos / 1000000 + " ms. " + this);
+
+        this.delayExecutor.schedule(() -> game.getMailbox().execute(game::finishTurn), TurnScheduler.AI_TURN_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The number of game mailboxes that wait for a thread.
+     */
+    public int getQueueDepth() {
+        return this.gameExecutor.getQueue().size();
+    }
+
+    public long getNumOfTurns() {
+        return this.numOfTurns.sum();
+    }
+
+    /**
+     * @return The average latency of AI turns (from being scheduled until the moves are made), in milliseconds.
+     */
+    public double getAverageLatencyMillis() {
+        long numOfTurns = this.numOfTurns.sum();
+        return numOfTurns == 0 ? 0 : this.totalLatencyNanos.sum() / 1e6 / numOfTurns;
+    }
+
+    public double getMaxLatencyMillis() {
+        return this.maxLatencyNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return "AI turns: " + this.getNumOfTurns() + " played, " + this.gameExecutor.getActiveCount() + " games running, " + this.getQueueDepth() + " games queued, "
+                + String.format("%.1f", this.getAverageLatencyMillis()) + " ms average latency, " + String.format("%.1f", this.getMaxLatencyMillis()) + " ms max latency";
+    }
+}
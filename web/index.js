@@ -9,8 +9,13 @@ const sliderDefaultOptions = {
     slide: (event, ui) => $('#sliderHandle').text(ui.value)
 };
 
-let webSocket, svgDoc, countriesJson, gameState, username, currentStageIndex;
-$.getJSON('countries.json', obj => countriesJson = obj);
+let webSocket, svgDoc, countriesJson, countryNamesById, gameState, username, currentStageIndex;
+let turnActions = []; // The actions the user made in his current turn, sent to the server when it is finished: [0, country, troops] for a draft, [1, from, to, remaining attackers, remaining defenders, troops to move] for an attack and [2, from, to, troops] for a fortify.
+let stateVersion = -1; // The sequence number of the version of the game state the client has, or -1 before the first snapshot.
+$.getJSON('countries.json', obj => {
+    countriesJson = obj;
+    countryNamesById = _.fromPairs(_.map(obj, (country, countryName) => [country.id, countryName]));
+});
 
 /**
  * A function that adds a number of troops to a country of the current player (even if the country is currently not occupied by him).
@@ -34,6 +39,16 @@ function addTroopsToCurrentPlayerCountry(countryName, troopsToAdd, shouldAnimate
     }
 }
 
+/**
+ * Adds a troop to the draft actions of the turn. Troops drafted to the same country one after the other are one action.
+ * @param countryId The id of the country.
+ */
+function addDraftAction(countryId) {
+    const lastAction = _.last(turnActions);
+    if (lastAction && lastAction[0] === 0 && lastAction[1] === countryId) lastAction[2]++;
+    else turnActions.push([0, countryId, 1]);
+}
+
 /**
  * @returns {Array} An array of the names of countries that are neighbors of the taken country and controlled by the rival player.
  */
@@ -68,6 +83,7 @@ const stages = [
          */
         click: evt => {
             addTroopsToCurrentPlayerCountry($(evt.target).attr('id'), 1, false);
+            addDraftAction(countriesJson[$(evt.target).attr('id')].id);
             $('#troopsToDistribute').text(--gameState.newTroops);
             if (!gameState.newTroops) advanceStage();
         }
@@ -130,7 +146,8 @@ function handleUsername(usernameInput) {
 
     username = usernameInput;
     const message = {
-        username
+        username,
+        binary: true
     };
 
     webSocket.send(JSON.stringify(message));
@@ -178,6 +195,8 @@ function mouseLeaveCountry() {
  * It checks the current player won, and if so writes it on screen and finishes the turn.
  */
 function conquerCountry(attackingCountryName, defendingCountryName, troopsToMove) {
+    const attackingTroopsNum = gameState.players[gameState.currentPlayer].countries[attackingCountryName];
+    turnActions.push([1, countriesJson[attackingCountryName].id, countriesJson[defendingCountryName].id, attackingTroopsNum, 0, troopsToMove]);
     _.forEach(gameState.players, v => v.countries = _.omit(v.countries, defendingCountryName));
 
     addTroopsToCurrentPlayerCountry(attackingCountryName, -troopsToMove);
@@ -264,6 +283,7 @@ function mouseClickNeighbor(attackingCountryName, evt) {
                 if (!defendingTroopsNum)
                     displayWinningDialog(attackingCountryName, defendingCountryName);
                 else {
+                    turnActions.push([1, countriesJson[attackingCountryName].id, countriesJson[defendingCountryName].id, attackingTroopsNum, defendingTroopsNum, 0]);
                     _.forEach(gameState.players, playerInfo => {
                         if (defendingCountryName in playerInfo.countries) {
                             playerInfo.countries[defendingCountryName] = defendingTroopsNum;
@@ -280,19 +300,15 @@ function mouseClickNeighbor(attackingCountryName, evt) {
 }
 
 /**
- * Finishes the turn. Hides current player stuff, creates the message for the server with the new game state and sends it.
+ * Finishes the turn. Hides current player stuff, and sends the actions of the turn to the server.
  */
 function finishTurn() {
     $('.country', svgDoc).unbind();
     $('#newHighlight', svgDoc).hide();
     $('#currentPlayerInfo').hide();
 
-    const gameStateToSend = _.pick(_.clone(gameState), ['gameId', 'players']);
-    _.forEach(gameStateToSend.players, playerCountries => {
-        playerCountries.countries = _.mapKeys(playerCountries.countries, (troops, country) => countriesJson[country].id);
-    });
-
-    webSocket.send(JSON.stringify(gameStateToSend));
+    webSocket.send(JSON.stringify({gameId: gameState.gameId, actions: turnActions}));
+    turnActions = [];
 }
 
 /**
@@ -309,6 +325,7 @@ function mouseClickCountryToFortify(fortifyingCountryName, evt) {
             'Done': () => {
                 $('#numberInputDialog').dialog('destroy');
                 const troopsToMove = $('#numberSlider').slider('value');
+                turnActions.push([2, countriesJson[fortifyingCountryName].id, countriesJson[$(evt.target).attr('id')].id, troopsToMove]);
                 addTroopsToCurrentPlayerCountry(fortifyingCountryName, -troopsToMove);
                 addTroopsToCurrentPlayerCountry($(evt.target).attr('id'), troopsToMove);
                 finishTurn();
@@ -384,28 +401,100 @@ function paintCountry(color, numOfTroops, countryName) {
     });
 }
 
+/**
+ * Applies the changed countries of a message from the server to gameState, and repaints only them.
+ * Every changed country has the index of its owner in the players array (or -1) and its number of troops.
+ * @param message The message, with the players array and the changed countries keyed by their ids.
+ */
+function applyStateChanges(message) {
+    const previousPlayers = message.baseSeq === -1 || !gameState ? {} : gameState.players;
+    gameState = _.pick(message, ['gameId', 'currentPlayer', 'newTroops']);
+    gameState.players = {};
+    _.forEach(message.players, playerData => {
+        const previousPlayer = previousPlayers[playerData.name];
+        gameState.players[playerData.name] = {color: playerData.color, countries: previousPlayer ? previousPlayer.countries : {}};
+    });
+
+    _.forEach(message.countries, ([owner, troops], countryId) => {
+        const countryName = countryNamesById[countryId];
+        _.forEach(gameState.players, playerData => delete playerData.countries[countryName]);
+        if (owner === -1) return;
+
+        const ownerData = gameState.players[message.players[owner].name];
+        ownerData.countries[countryName] = troops;
+        paintCountry(ownerData.color, troops, countryName);
+    });
+}
+
+/**
+ * Decodes a binary frame from the server into the same object as a json message.
+ * The frame has a format byte, the gameId, seq, baseSeq and newTroops ints, the current player index byte, the number of players byte,
+ * the name and color of every player (unsigned short length and UTF-8 bytes), the number of countries unsigned short,
+ * and the id (unsigned short), owner index (byte) and troops (int) of every country. Numbers are big endian.
+ * @param buffer The ArrayBuffer of the frame.
+ * @returns {Object} The message.
+ */
+function decodeBinaryMessage(buffer) {
+    const view = new DataView(buffer), textDecoder = new TextDecoder();
+    let offset = 1;
+    const readInt = () => {
+        offset += 4;
+        return view.getInt32(offset - 4);
+    };
+    const readString = () => {
+        const length = view.getUint16(offset);
+        offset += 2 + length;
+        return textDecoder.decode(new Uint8Array(buffer, offset - length, length));
+    };
+
+    const message = {gameId: readInt(), seq: readInt(), baseSeq: readInt(), newTroops: readInt(), countries: {}};
+    const currentPlayerIndex = view.getInt8(offset), numOfPlayers = view.getUint8(offset + 1);
+    offset += 2;
+    message.players = _.times(numOfPlayers, () => ({name: readString(), color: readString()}));
+    message.currentPlayer = message.players[currentPlayerIndex].name;
+
+    const numOfCountries = view.getUint16(offset);
+    offset += 2;
+    _.times(numOfCountries, () => {
+        message.countries[view.getUint16(offset)] = [view.getInt8(offset + 2), view.getInt32(offset + 3)];
+        offset += 7;
+    });
+    return message;
+}
+
 /**
  * A function invoked when a message is received from the server.
- * Initializes gameState with the received data.
+ * The message has the changes since a version of the game state (baseSeq) that the client has, or a full snapshot (baseSeq -1).
+ * The changes are applied only if their base version is exactly the version the client has (the server may build them from an older version
+ * the client acknowledged, while the acknowledgement of a newer one is on the way). Otherwise the client asks the server for a snapshot.
+ * After applying the message the client acknowledges the new version.
  * Updates the player list and the countries.
  * If there is a winner displays his name.
  * If not starts the turn for the current player.
  */
 function onServerMessage(evt) {
-    gameState = JSON.parse(evt.data);
+    const message = evt.data instanceof ArrayBuffer ? decodeBinaryMessage(evt.data) : JSON.parse(evt.data);
+    if (message.baseSeq !== -1 && message.seq <= stateVersion) return; // An old version.
+    if (message.baseSeq !== -1 && message.baseSeq !== stateVersion) {
+        // The changes are from another version - countries that changed since it and changed back aren't in them.
+        webSocket.send(JSON.stringify({gameId: message.gameId, resync: true}));
+        return;
+    }
+
+    applyStateChanges(message);
+    stateVersion = message.seq;
+    webSocket.send(JSON.stringify({gameId: gameState.gameId, ack: stateVersion}));
 
     $('#title').text(`${gameState.currentPlayer}'s turn`);
     $('#legendList').empty();
-    _.forEach(gameState.players, (playerData, playerName) => {
-        addPlayerListItem(playerName, playerData.color);
-        _.forEach(playerData.countries, _.partial(paintCountry, playerData.color));
-    });
+    _.forEach(gameState.players, (playerData, playerName) => addPlayerListItem(playerName, playerData.color));
 
     const winnerName = _.findKey(gameState.players, playerData => _.size(playerData.countries) === _.size(countriesJson));
     if (winnerName) {
         $('#title').text(`${winnerName} has won the game!`);
     } else if (gameState.currentPlayer === username) {
         currentStageIndex = -1;
+        turnActions = [];
         $('#troopsToDistribute').text(gameState.newTroops);
         $('#currentPlayerInfo').show();
         advanceStage();
@@ -421,6 +510,7 @@ function init() {
     svgDoc = svg.ownerDocument;
 
     webSocket = new WebSocket(`ws://${window.location.hostname}:8080/Risk_war_exploded/ws`);
+    webSocket.binaryType = 'arraybuffer';
     webSocket.onmessage = onServerMessage;
 }
 